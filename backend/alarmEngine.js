@@ -0,0 +1,267 @@
+// alarmEngine.js
+
+// Server-side alarm timing engine. Every enabled alarm lives in an indexed
+// binary min-heap keyed on its next fire time, and a single timer is armed
+// for the earliest one. Entries remember their heap position, so inserts,
+// reschedules and cancels are all O(log n) and a million alarms only cost a
+// few small objects each.
+
+import { computeNextFireAt, toDayMask, toMinutes } from './alarmTime.js';
+
+// Never sleep longer than this, so clock jumps are noticed quickly
+const MAX_SLEEP_MS = 1000;
+
+// Indexed min-heap of alarm entries ordered by fireAt
+class FireQueue {
+  constructor() {
+    this.heap = [];
+    this.byId = new Map();
+  }
+
+  get size() {
+    return this.heap.length;
+  }
+
+  peek() {
+    return this.heap[0] || null;
+  }
+
+  get(id) {
+    return this.byId.get(id) || null;
+  }
+
+  // Insert a new entry or move an existing one to its new fire time
+  upsert(entry) {
+    const existing = this.byId.get(entry.id);
+    if (existing) {
+      Object.assign(existing, entry, { pos: existing.pos });
+      this.fix(existing.pos);
+      return existing;
+    }
+
+    entry.pos = this.heap.length;
+    this.heap.push(entry);
+    this.byId.set(entry.id, entry);
+    this.siftUp(entry.pos);
+    return entry;
+  }
+
+  remove(id) {
+    const entry = this.byId.get(id);
+    if (!entry) return null;
+
+    this.byId.delete(id);
+    const last = this.heap.pop();
+    if (last !== entry) {
+      this.heap[entry.pos] = last;
+      last.pos = entry.pos;
+      this.fix(last.pos);
+    }
+    return entry;
+  }
+
+  pop() {
+    const top = this.heap[0];
+    return top ? this.remove(top.id) : null;
+  }
+
+  clear() {
+    this.heap = [];
+    this.byId.clear();
+  }
+
+  fix(pos) {
+    if (pos > 0 && this.heap[pos].fireAt < this.heap[(pos - 1) >> 1].fireAt) {
+      this.siftUp(pos);
+    } else {
+      this.siftDown(pos);
+    }
+  }
+
+  siftUp(pos) {
+    const heap = this.heap;
+    const entry = heap[pos];
+    while (pos > 0) {
+      const parentPos = (pos - 1) >> 1;
+      const parent = heap[parentPos];
+      if (parent.fireAt <= entry.fireAt) break;
+      heap[pos] = parent;
+      parent.pos = pos;
+      pos = parentPos;
+    }
+    heap[pos] = entry;
+    entry.pos = pos;
+  }
+
+  siftDown(pos) {
+    const heap = this.heap;
+    const length = heap.length;
+    const entry = heap[pos];
+    for (;;) {
+      let childPos = 2 * pos + 1;
+      if (childPos >= length) break;
+      if (childPos + 1 < length && heap[childPos + 1].fireAt < heap[childPos].fireAt) {
+        childPos++;
+      }
+      const child = heap[childPos];
+      if (child.fireAt >= entry.fireAt) break;
+      heap[pos] = child;
+      child.pos = pos;
+      pos = childPos;
+    }
+    heap[pos] = entry;
+    entry.pos = pos;
+  }
+}
+
+// Keep only what is needed to fire and reschedule an alarm
+function toEntry(alarm, fireAt) {
+  return {
+    id: String(alarm._id),
+    userId: alarm.userId,
+    label: alarm.label,
+    time: alarm.time,
+    dayMask: Number.isInteger(alarm.dayMask) ? alarm.dayMask : toDayMask(alarm.days),
+    minutes: Number.isInteger(alarm.minutes) ? alarm.minutes : toMinutes(alarm.time),
+    timeZone: alarm.timeZone,
+    fireAt
+  };
+}
+
+// Build the Web Push payload the service worker expects
+export function buildPushPayload(entry) {
+  return {
+    title: entry.label || 'Alarm',
+    body: `It's ${entry.time}! Time to wake up!`,
+    alarmId: entry.id,
+    userId: entry.userId
+  };
+}
+
+// Create an alarm engine. `dispatch(entry)` is called once per fire and
+// `onReschedule(id, nextFireAt)` whenever a fire moves an alarm forward.
+export function createAlarmEngine({ dispatch, onReschedule, now = Date.now, maxSleepMs = MAX_SLEEP_MS }) {
+  const queue = new FireQueue();
+  let timer = null;
+  let running = false;
+
+  const stats = {
+    fired: 0,
+    maxLatenessMs: 0,
+    totalLatenessMs: 0
+  };
+
+  function arm() {
+    if (timer) {
+      clearTimeout(timer);
+      timer = null;
+    }
+    if (!running) return;
+
+    const top = queue.peek();
+    if (!top) return;
+
+    // Re-check the wall clock at least every maxSleepMs
+    const delay = Math.max(0, Math.min(top.fireAt - now(), maxSleepMs));
+    timer = setTimeout(tick, delay);
+  }
+
+  function tick() {
+    timer = null;
+    const current = now();
+
+    while (queue.size > 0 && queue.peek().fireAt <= current) {
+      const entry = queue.pop();
+      const lateness = current - entry.fireAt;
+
+      stats.fired++;
+      stats.totalLatenessMs += lateness;
+      stats.maxLatenessMs = Math.max(stats.maxLatenessMs, lateness);
+
+      try {
+        dispatch(entry);
+      } catch (error) {
+        console.error(`Error dispatching alarm ${entry.id}:`, error);
+      }
+
+      // Queue the next occurrence of the alarm
+      const nextFireAt = computeNextFireAt(entry, Math.max(current, entry.fireAt));
+      if (nextFireAt) {
+        queue.upsert({ ...entry, fireAt: nextFireAt });
+      }
+      if (onReschedule) {
+        onReschedule(entry.id, nextFireAt);
+      }
+    }
+
+    arm();
+  }
+
+  // Add, move or drop an alarm after it was written to the database
+  function upsert(alarm) {
+    if (!alarm || !alarm._id) return;
+
+    if (!alarm.isEnabled) {
+      remove(alarm._id);
+      return;
+    }
+
+    const current = now();
+    const fireAt = alarm.nextFireAt > current ? alarm.nextFireAt : computeNextFireAt(alarm, current);
+    if (!fireAt) {
+      remove(alarm._id);
+      return;
+    }
+
+    const top = queue.peek();
+    queue.upsert(toEntry(alarm, fireAt));
+    if (queue.peek() !== top) arm();
+  }
+
+  function remove(alarmId) {
+    const top = queue.peek();
+    const removed = queue.remove(String(alarmId));
+    if (removed && removed === top) arm();
+  }
+
+  // Replace the whole queue from a stream of alarm documents
+  async function load(alarms) {
+    queue.clear();
+    const current = now();
+    let count = 0;
+
+    for await (const alarm of alarms) {
+      // Trust the persisted nextFireAt unless it has already passed
+      const fireAt = alarm.nextFireAt > current ? alarm.nextFireAt : computeNextFireAt(alarm, current);
+      if (fireAt) {
+        queue.upsert(toEntry(alarm, fireAt));
+        count++;
+      }
+    }
+
+    arm();
+    return count;
+  }
+
+  function start() {
+    running = true;
+    arm();
+  }
+
+  function stop() {
+    running = false;
+    arm();
+  }
+
+  function getStats() {
+    return {
+      scheduled: queue.size,
+      nextFireAt: queue.peek()?.fireAt || null,
+      fired: stats.fired,
+      maxLatenessMs: stats.maxLatenessMs,
+      avgLatenessMs: stats.fired > 0 ? stats.totalLatenessMs / stats.fired : 0
+    };
+  }
+
+  return { load, upsert, remove, start, stop, getStats };
+}
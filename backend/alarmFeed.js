@@ -0,0 +1,217 @@
+// alarmFeed.js
+
+// Per-user alarm change feed. One change stream on the alarms collection is
+// shared by every connected client: each change is routed to the
+// subscribers of the alarm's userId. The stream opens with the first
+// subscriber, closes with the last, and resumes from its last token after
+// errors. Change streams need a replica set; a single-node one is enough.
+// Subscribers also get `status` events saying whether the stream is live,
+// so clients know when they must fall back to refetching.
+
+const RETRY_MIN_MS = 1000;
+const RETRY_MAX_MS = 30000;
+
+export function createAlarmFeed({ getDb, collectionName }) {
+  // userId -> Set of send(event) callbacks
+  const subscribers = new Map();
+  let subscriberCount = 0;
+
+  let changeStream = null;
+  let live = false;
+  let opening = false;
+  let resumeToken = null;
+  let retryTimer = null;
+  let retryDelay = RETRY_MIN_MS;
+  let preImagesEnabled = false;
+  let preImagesChecked = false;
+
+  const stats = {
+    changes: 0,
+    delivered: 0,
+    broadcastDeletes: 0,
+    restarts: 0
+  };
+
+  // Pre-images let deletes be routed to their owner (MongoDB 6.0+)
+  async function enablePreImages(db) {
+    try {
+      await db.command({
+        collMod: collectionName,
+        changeStreamPreAndPostImages: { enabled: true }
+      });
+      preImagesEnabled = true;
+    } catch (error) {
+      console.warn('Alarm feed: pre-images unavailable, deletes go to every subscriber:', error.message);
+    }
+  }
+
+  function toEvent(change) {
+    switch (change.operationType) {
+      case 'insert':
+      case 'update':
+      case 'replace':
+        return change.fullDocument
+          ? { userId: change.fullDocument.userId, event: { type: 'upsert', alarm: change.fullDocument } }
+          : null;
+      case 'delete':
+        return {
+          userId: change.fullDocumentBeforeChange?.userId,
+          event: { type: 'delete', id: change.documentKey._id.toString() }
+        };
+      default:
+        return null;
+    }
+  }
+
+  function route(change) {
+    resumeToken = change._id;
+    stats.changes++;
+
+    const routed = toEvent(change);
+    if (!routed) return;
+
+    if (routed.userId) {
+      for (const send of subscribers.get(routed.userId) || []) {
+        send(routed.event);
+        stats.delivered++;
+      }
+      return;
+    }
+
+    // A delete without a pre-image can't be attributed; ids are opaque, so
+    // clients simply ignore deletes for alarms they don't have
+    stats.broadcastDeletes++;
+    stats.delivered += subscriberCount;
+    sendToAll(routed.event);
+  }
+
+  function sendToAll(event) {
+    for (const sends of subscribers.values()) {
+      for (const send of sends) {
+        send(event);
+      }
+    }
+  }
+
+  function setLive(value) {
+    if (live === value) return;
+    live = value;
+    sendToAll({ type: 'status', live });
+  }
+
+  function scheduleRestart() {
+    if (retryTimer || subscriberCount === 0) return;
+
+    retryTimer = setTimeout(() => {
+      retryTimer = null;
+      open().catch(error => {
+        console.error('Alarm feed: could not reopen change stream:', error.message);
+        scheduleRestart();
+      });
+    }, retryDelay);
+    retryDelay = Math.min(retryDelay * 2, RETRY_MAX_MS);
+  }
+
+  async function open() {
+    if (changeStream || opening || subscriberCount === 0) return;
+
+    let db;
+    opening = true;
+    try {
+      db = await getDb();
+      if (!preImagesChecked) {
+        await enablePreImages(db);
+        preImagesChecked = true;
+      }
+    } finally {
+      opening = false;
+    }
+    // Everyone may have left while connecting
+    if (changeStream || subscriberCount === 0) return;
+
+    const stream = db.collection(collectionName).watch([], {
+      fullDocument: 'updateLookup',
+      fullDocumentBeforeChange: preImagesEnabled ? 'whenAvailable' : 'off',
+      ...(resumeToken ? { resumeAfter: resumeToken } : {})
+    });
+    changeStream = stream;
+
+    // The server accepted the stream's aggregate
+    stream.on('init', () => setLive(true));
+
+    stream.on('change', change => {
+      retryDelay = RETRY_MIN_MS;
+      route(change);
+    });
+
+    stream.on('error', error => {
+      console.error('Alarm feed: change stream error:', error.message);
+      // A token the oplog no longer holds can't be resumed from
+      if (error.code === 286 || error.code === 280) {
+        resumeToken = null;
+      }
+      stream.close().catch(() => {});
+    });
+
+    stream.on('close', () => {
+      if (changeStream !== stream) return;
+      changeStream = null;
+      setLive(false);
+      stats.restarts++;
+      scheduleRestart();
+    });
+  }
+
+  function close() {
+    if (retryTimer) {
+      clearTimeout(retryTimer);
+      retryTimer = null;
+    }
+    if (changeStream) {
+      const stream = changeStream;
+      changeStream = null;
+      stream.close().catch(() => {});
+    }
+    live = false;
+  }
+
+  // Register a callback for one user's changes; returns the unsubscribe
+  function subscribe(userId, send) {
+    if (!subscribers.has(userId)) {
+      subscribers.set(userId, new Set());
+    }
+    subscribers.get(userId).add(send);
+    subscriberCount++;
+    send({ type: 'status', live });
+
+    if (subscriberCount === 1) {
+      open().catch(error => {
+        console.error('Alarm feed: could not open change stream:', error.message);
+        scheduleRestart();
+      });
+    }
+
+    return () => {
+      const sends = subscribers.get(userId);
+      if (!sends || !sends.delete(send)) return;
+      if (sends.size === 0) {
+        subscribers.delete(userId);
+      }
+      if (--subscriberCount === 0) {
+        close();
+      }
+    };
+  }
+
+  function getStats() {
+    return {
+      ...stats,
+      users: subscribers.size,
+      connections: subscriberCount,
+      live,
+      preImagesEnabled
+    };
+  }
+
+  return { subscribe, close, getStats };
+}
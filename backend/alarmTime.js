@@ -0,0 +1,162 @@
+// alarmTime.js
+
+// Helpers for working out when an alarm fires next. Alarms are stored as a
+// local "HH:MM" time plus a list of week days, so the user's IANA time zone
+// is needed to turn them into an absolute instant on the server.
+
+const DAY_NAMES = ['Sun', 'Mon', 'Tue', 'Wed', 'Thu', 'Fri', 'Sat'];
+
+// Intl formatters are expensive to build, so keep one per time zone
+const formatterCache = new Map();
+
+function getFormatter(timeZone) {
+  let formatter = formatterCache.get(timeZone);
+  if (!formatter) {
+    formatter = new Intl.DateTimeFormat('en-US', {
+      timeZone,
+      hourCycle: 'h23',
+      year: 'numeric',
+      month: 'numeric',
+      day: 'numeric',
+      hour: 'numeric',
+      minute: 'numeric',
+      second: 'numeric'
+    });
+    formatterCache.set(timeZone, formatter);
+  }
+  return formatter;
+}
+
+// Offsets are cached per 15-minute bucket of UTC time. This assumes every
+// offset transition falls on a 15-minute UTC boundary, which holds for
+// current tzdata rules; a transition inside a bucket would give the
+// instants before it in that bucket the wrong offset. (The offsets
+// themselves need not be whole quarter hours; only the transition
+// instants matter.) Loading a million alarms then costs a map lookup per
+// alarm, not an Intl call.
+const OFFSET_BUCKET_MS = 15 * 60 * 1000;
+const MAX_CACHED_OFFSETS = 10000;
+const offsetCache = new Map();
+
+// Offset of a time zone from UTC (in ms) at the given instant
+function zoneOffsetMs(timeZone, instant) {
+  const key = `${timeZone}|${Math.floor(instant / OFFSET_BUCKET_MS)}`;
+  let offset = offsetCache.get(key);
+  if (offset === undefined) {
+    offset = computeZoneOffsetMs(timeZone, instant);
+    if (offsetCache.size >= MAX_CACHED_OFFSETS) {
+      offsetCache.clear();
+    }
+    offsetCache.set(key, offset);
+  }
+  return offset;
+}
+
+function computeZoneOffsetMs(timeZone, instant) {
+  const parts = {};
+  for (const part of getFormatter(timeZone).formatToParts(new Date(instant))) {
+    parts[part.type] = part.value;
+  }
+
+  const asUtc = Date.UTC(
+    Number(parts.year),
+    Number(parts.month) - 1,
+    Number(parts.day),
+    Number(parts.hour),
+    Number(parts.minute),
+    Number(parts.second)
+  );
+
+  return asUtc - Math.floor(instant / 1000) * 1000;
+}
+
+// Check that a time zone name is usable, falling back to the server zone
+function resolveTimeZone(timeZone) {
+  if (!timeZone) return null;
+
+  try {
+    getFormatter(timeZone);
+    return timeZone;
+  } catch (error) {
+    return null;
+  }
+}
+
+// Bit i of a day mask is set when the alarm rings on DAY_NAMES[i]
+// (Sun = bit 0, the same numbering as Date.getDay())
+export function toDayMask(days) {
+  if (!Array.isArray(days)) return 0;
+
+  let mask = 0;
+  for (const day of days) {
+    const index = DAY_NAMES.indexOf(day);
+    if (index !== -1) mask |= 1 << index;
+  }
+  return mask;
+}
+
+// Parse "HH:MM" into minutes since midnight
+export function toMinutes(time) {
+  const [hours, minutes] = String(time || '').split(':').map(Number);
+  if (!Number.isInteger(hours) || !Number.isInteger(minutes)) {
+    return null;
+  }
+  return hours * 60 + minutes;
+}
+
+// Compute the next fire time (epoch ms) of an alarm strictly after `from`.
+// Uses the stored dayMask/minutes when present and falls back to days/time.
+export function computeNextFireAt(alarm, from = Date.now()) {
+  const dayMask = Number.isInteger(alarm.dayMask) ? alarm.dayMask : toDayMask(alarm.days);
+  const minutes = Number.isInteger(alarm.minutes) ? alarm.minutes : toMinutes(alarm.time);
+  if (!dayMask || minutes === null) {
+    return null;
+  }
+
+  const timeZone = resolveTimeZone(alarm.timeZone);
+
+  // Wall clock of `from` in the alarm's zone, expressed as if it were UTC
+  const offset = timeZone ? zoneOffsetMs(timeZone, from) : -new Date(from).getTimezoneOffset() * 60000;
+  const localNow = new Date(from + offset);
+
+  for (let i = 0; i <= 7; i++) {
+    const localDay = new Date(Date.UTC(
+      localNow.getUTCFullYear(),
+      localNow.getUTCMonth(),
+      localNow.getUTCDate() + i,
+      0,
+      minutes
+    ));
+
+    if ((dayMask & (1 << localDay.getUTCDay())) === 0) {
+      continue;
+    }
+
+    // Convert local wall time back to an instant, correcting once for DST
+    let fireAt = localDay.getTime() - offset;
+    if (timeZone) {
+      fireAt = localDay.getTime() - zoneOffsetMs(timeZone, fireAt);
+    } else {
+      fireAt = localDay.getTime() + new Date(fireAt).getTimezoneOffset() * 60000;
+    }
+
+    if (fireAt > from) {
+      return fireAt;
+    }
+  }
+
+  return null;
+}
+
+// Derived scheduling fields persisted next to time/days on every write
+export function deriveSchedule(alarm, from = Date.now()) {
+  const dayMask = toDayMask(alarm.days);
+  const minutes = toMinutes(alarm.time);
+  const nextFireAt = alarm.isEnabled
+    ? computeNextFireAt({ dayMask, minutes, timeZone: alarm.timeZone }, from)
+    : null;
+
+  return { dayMask, minutes, nextFireAt };
+}
+
+export { DAY_NAMES };
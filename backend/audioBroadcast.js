@@ -0,0 +1,131 @@
+// audioBroadcast.js
+
+// Fans one upstream audio stream out to any number of HTTP responses.
+// Every chunk is appended to a spool file (the TTS cache's audio file for
+// the key) before it is handed out, and only the most recent chunks stay
+// in memory. Readers that keep up are served from that in-memory tail;
+// late joiners and slow clients read the rest back from the file. The
+// upstream is pulled as fast as the disk accepts it, never faster, so a
+// broadcast holds at most about MAX_TAIL_BYTES of audio however long the
+// speech is and however slowly its clients read.
+
+import { EventEmitter } from 'events';
+import fs from 'fs/promises';
+import { Readable } from 'stream';
+import { pipeline } from 'stream/promises';
+
+// Recent audio kept in memory for readers that are keeping up
+const MAX_TAIL_BYTES = 256 * 1024;
+// Size of each read from the spool file
+const SPOOL_READ_BYTES = 64 * 1024;
+
+export class AudioBroadcast extends EventEmitter {
+  constructor(contentType, spoolPath) {
+    super();
+    this.setMaxListeners(0);
+    this.contentType = contentType;
+    this.spoolPath = spoolPath;
+    // Recent chunks as { start, chunk }, oldest first
+    this.tail = [];
+    this.tailStart = 0;
+    this.tailBytes = 0;
+    this.bytes = 0;
+    this.done = false;
+    this.error = null;
+
+    // Resolves with the total size once the spool file is complete,
+    // rejects if the upstream fails
+    this.finished = new Promise((resolve, reject) => {
+      this.once('finish', resolve);
+      this.once('fail', reject);
+    });
+    this.finished.catch(() => {});
+  }
+
+  // Spool an upstream body to disk in the background. Each chunk is
+  // written before the next one is read, which is what paces the upstream.
+  consume(body) {
+    (async () => {
+      let file = null;
+      try {
+        file = await fs.open(this.spoolPath, 'w');
+        for await (const chunk of body) {
+          await file.write(chunk, 0, chunk.length, this.bytes);
+          this.append(Buffer.from(chunk.buffer, chunk.byteOffset, chunk.length));
+        }
+        await file.close();
+        file = null;
+
+        if (this.bytes === 0) {
+          throw new Error('Empty audio response received');
+        }
+
+        this.done = true;
+        this.emit('update');
+        this.emit('finish', this.bytes);
+      } catch (error) {
+        await file?.close().catch(() => {});
+        await fs.rm(this.spoolPath, { force: true }).catch(() => {});
+        this.error = error;
+        this.emit('update');
+        this.emit('fail', error);
+      }
+    })();
+    return this;
+  }
+
+  // Add a chunk that is already on disk, dropping the oldest ones from memory
+  append(chunk) {
+    this.tail.push({ start: this.bytes, chunk });
+    this.tailBytes += chunk.length;
+    this.bytes += chunk.length;
+
+    while (this.tailBytes > MAX_TAIL_BYTES && this.tail.length > 1) {
+      const { chunk: dropped } = this.tail.shift();
+      this.tailBytes -= dropped.length;
+      this.tailStart += dropped.length;
+    }
+    this.emit('update');
+  }
+
+  // The in-memory audio from `offset` up to the end of its chunk
+  readTail(offset) {
+    const entry = this.tail.find(({ start, chunk }) => offset < start + chunk.length);
+    return entry.chunk.subarray(offset - entry.start);
+  }
+
+  async *iterate() {
+    let offset = 0;
+    let file = null;
+    try {
+      for (;;) {
+        if (offset >= this.tailStart && offset < this.bytes) {
+          const chunk = this.readTail(offset);
+          offset += chunk.length;
+          yield chunk;
+          continue;
+        }
+        if (offset < this.tailStart) {
+          // Fallen behind the tail: catch up from the spool file
+          file ??= await fs.open(this.spoolPath, 'r');
+          const buffer = Buffer.alloc(Math.min(SPOOL_READ_BYTES, this.tailStart - offset));
+          const { bytesRead } = await file.read(buffer, 0, buffer.length, offset);
+          if (bytesRead === 0) throw new Error('Spooled audio is shorter than expected');
+          offset += bytesRead;
+          yield buffer.subarray(0, bytesRead);
+          continue;
+        }
+        if (this.error) throw this.error;
+        if (this.done) return;
+        await new Promise(resolve => this.once('update', resolve));
+      }
+    } finally {
+      await file?.close().catch(() => {});
+    }
+  }
+
+  // Stream everything received so far, then the rest as it arrives
+  async pipeTo(res) {
+    await pipeline(Readable.from(this.iterate()), res);
+  }
+}
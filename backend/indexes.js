@@ -0,0 +1,89 @@
+// indexes.js
+
+// Declared indexes and the query shapes the generic Mongo proxy is allowed
+// to run. Every shape listed here is served by one of the declared indexes,
+// so /api/find and /api/findOne can never fall back to a collection scan.
+
+// How long deleted alarms are remembered for delta sync
+export const ALARM_TOMBSTONE_TTL_SECONDS = 30 * 24 * 60 * 60;
+
+// Indexes built at startup, per collection
+export const INDEXES = {
+  users: [
+    { key: { googleId: 1 }, options: { unique: true } }
+  ],
+  alarms: [
+    { key: { userId: 1, time: 1 } },
+    // Also serves { userId, isEnabled } lookups through its prefix
+    { key: { userId: 1, isEnabled: 1, nextFireAt: 1 } },
+    { key: { isEnabled: 1, nextFireAt: 1 } },
+    { key: { userId: 1, updatedAt: 1 } }
+  ],
+  alarmTombstones: [
+    { key: { userId: 1, deletedAt: 1 } },
+    { key: { deletedAt: 1 }, options: { expireAfterSeconds: ALARM_TOMBSTONE_TTL_SECONDS } }
+  ],
+  pushSubscriptions: [
+    { key: { endpoint: 1 }, options: { unique: true } },
+    { key: { userId: 1 } }
+  ],
+  weather: [
+    { key: { expiresAt: 1 }, options: { expireAfterSeconds: 0 } }
+  ]
+};
+
+// Query shapes allowed through /api/find and /api/findOne. `filter` is the
+// set of top-level filter fields, `sort` the ordered sort fields (if any).
+// Lookups by _id alone are always allowed.
+export const QUERY_SHAPES = {
+  users: [
+    { filter: ['googleId'] }
+  ],
+  alarms: [
+    { filter: ['userId'], sort: ['time'] },
+    { filter: ['userId'] },
+    { filter: ['userId', 'isEnabled'] },
+    { filter: ['userId', 'isEnabled', 'nextFireAt'], sort: ['nextFireAt'] }
+  ]
+};
+
+// Build every declared index. A failure (for example duplicate googleIds
+// blocking the unique index) is logged and does not stop the others.
+export async function ensureIndexes(getCollection) {
+  for (const [collectionName, indexes] of Object.entries(INDEXES)) {
+    const collection = await getCollection(collectionName);
+    for (const { key, options } of indexes) {
+      try {
+        await collection.createIndex(key, options || {});
+      } catch (error) {
+        console.error(`Failed to create index ${JSON.stringify(key)} on ${collectionName}:`, error.message);
+      }
+    }
+  }
+  console.log('MongoDB indexes ensured');
+}
+
+// Describe a query as { filter: sorted field names, sort: field names }
+export function describeQueryShape(filter = {}, sort = {}) {
+  return {
+    filter: Object.keys(filter).sort(),
+    sort: Object.keys(sort || {})
+  };
+}
+
+function sameFields(a, b) {
+  return a.length === b.length && a.every((field, index) => field === b[index]);
+}
+
+// Check a query against the registry
+export function isAllowedQueryShape(collectionName, shape) {
+  if (sameFields(shape.filter, ['_id']) && shape.sort.length === 0) {
+    return true;
+  }
+
+  const allowed = QUERY_SHAPES[collectionName] || [];
+  return allowed.some(candidate =>
+    sameFields([...candidate.filter].sort(), shape.filter) &&
+    sameFields(candidate.sort || [], shape.sort)
+  );
+}
@@ -0,0 +1,149 @@
+// pushService.js
+
+// Delivers alarm notifications to subscribed browsers. With VAPID keys
+// configured, payloads go out through Web Push. When PUSH_RECEIVER_URL is set,
+// payloads are POSTed there instead, which lets a local stand-in receiver
+// (such as /api/push/receiver) take the place of the browser push services.
+
+import webpush from 'web-push';
+import fetch from 'node-fetch';
+
+const SUBSCRIPTIONS_COLLECTION = 'pushSubscriptions';
+
+// Max number of pushes in flight at once
+const PUSH_CONCURRENCY = Number(process.env.PUSH_CONCURRENCY) || 50;
+
+export function createPushService({ getCollection }) {
+  const {
+    VAPID_PUBLIC_KEY,
+    VAPID_PRIVATE_KEY,
+    VAPID_SUBJECT,
+    PUSH_RECEIVER_URL
+  } = process.env;
+
+  const webPushEnabled = Boolean(VAPID_PUBLIC_KEY && VAPID_PRIVATE_KEY);
+  if (webPushEnabled) {
+    webpush.setVapidDetails(VAPID_SUBJECT || 'mailto:admin@earlyspring.app', VAPID_PUBLIC_KEY, VAPID_PRIVATE_KEY);
+  }
+
+  // Pending pushes; `head` avoids O(n) shifts when millions are queued
+  let queue = [];
+  let head = 0;
+  let inFlight = 0;
+
+  const stats = {
+    sent: 0,
+    failed: 0,
+    expired: 0
+  };
+
+  // Save (or refresh) a browser subscription for a user
+  async function subscribe(userId, subscription) {
+    const collection = await getCollection(SUBSCRIPTIONS_COLLECTION);
+    await collection.updateOne(
+      { endpoint: subscription.endpoint },
+      {
+        $set: {
+          userId,
+          endpoint: subscription.endpoint,
+          keys: subscription.keys,
+          updatedAt: new Date()
+        },
+        $setOnInsert: { createdAt: new Date() }
+      },
+      { upsert: true }
+    );
+  }
+
+  async function unsubscribe(endpoint) {
+    const collection = await getCollection(SUBSCRIPTIONS_COLLECTION);
+    await collection.deleteOne({ endpoint });
+  }
+
+  // Send one payload to one subscription using the configured transport
+  async function deliver(subscription, payload) {
+    if (PUSH_RECEIVER_URL) {
+      const response = await fetch(PUSH_RECEIVER_URL, {
+        method: 'POST',
+        headers: { 'Content-Type': 'application/json' },
+        body: JSON.stringify({ endpoint: subscription.endpoint, payload })
+      });
+      if (!response.ok) {
+        const error = new Error(`Push receiver error (${response.status})`);
+        error.statusCode = response.status;
+        throw error;
+      }
+      return;
+    }
+
+    if (!webPushEnabled) {
+      throw new Error('Web Push is not configured (missing VAPID keys)');
+    }
+
+    await webpush.sendNotification(
+      { endpoint: subscription.endpoint, keys: subscription.keys },
+      JSON.stringify(payload),
+      { TTL: 60, urgency: 'high' }
+    );
+  }
+
+  async function sendToUser(userId, payload) {
+    const collection = await getCollection(SUBSCRIPTIONS_COLLECTION);
+    const subscriptions = await collection.find({ userId }).toArray();
+
+    await Promise.all(subscriptions.map(async (subscription) => {
+      try {
+        await deliver(subscription, payload);
+        stats.sent++;
+      } catch (error) {
+        // Gone subscriptions will never work again, drop them
+        if (error.statusCode === 404 || error.statusCode === 410) {
+          stats.expired++;
+          await collection.deleteOne({ endpoint: subscription.endpoint });
+        } else {
+          stats.failed++;
+          console.error(`Push to ${subscription.endpoint} failed:`, error.message);
+        }
+      }
+    }));
+  }
+
+  // Drain the queue with bounded concurrency so a burst of fires at the
+  // same minute does not open thousands of sockets at once
+  function drain() {
+    while (inFlight < PUSH_CONCURRENCY && head < queue.length) {
+      const { userId, payload } = queue[head];
+      queue[head++] = undefined;
+      inFlight++;
+      sendToUser(userId, payload)
+        .catch(error => console.error('Error sending push:', error))
+        .finally(() => {
+          inFlight--;
+          drain();
+        });
+    }
+
+    if (head === queue.length) {
+      queue = [];
+      head = 0;
+    }
+  }
+
+  function enqueue(userId, payload) {
+    queue.push({ userId, payload });
+    drain();
+  }
+
+  function getStats() {
+    return { ...stats, queued: queue.length - head, inFlight };
+  }
+
+  return {
+    publicKey: VAPID_PUBLIC_KEY || null,
+    enabled: webPushEnabled || Boolean(PUSH_RECEIVER_URL),
+    subscribe,
+    unsubscribe,
+    enqueue,
+    getStats
+  };
+}
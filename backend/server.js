@@ -4,6 +4,16 @@ import cors from 'cors';
 import { MongoClient, ObjectId } from 'mongodb';
 import dotenv from 'dotenv';
 import fetch from 'node-fetch';
+import path from 'path';
+import { createAlarmEngine, buildPushPayload } from './alarmEngine.js';
+import { createPushService } from './pushService.js';
+import { deriveSchedule } from './alarmTime.js';
+import { createTtsCache, ttsCacheKey } from './ttsCache.js';
+import { createSingleflight } from './singleflight.js';
+import { AudioBroadcast } from './audioBroadcast.js';
+import { createWeatherService, decodeGeohashCenter } from './weather.js';
+import { createAlarmFeed } from './alarmFeed.js';
+import { ensureIndexes, describeQueryShape, isAllowedQueryShape, ALARM_TOMBSTONE_TTL_SECONDS } from './indexes.js';
 
 dotenv.config();
 
@@ -44,6 +54,212 @@ async function getCollection(dbName, collectionName) {
   return db.collection(collectionName);
 }
 
+// ============ ALARM ENGINE & PUSH ============
+
+const ALARMS_COLLECTION = 'alarms';
+const USERS_COLLECTION = 'users';
+
+const pushService = createPushService({
+  getCollection: (collectionName) => getCollection(DB_NAME, collectionName)
+});
+
+// Fires move alarms forward; persist the new nextFireAt values in batches.
+// updatedAt moves with them so delta sync (/api/alarms/changes) sees the
+// new fire time, not just the live feed.
+const pendingReschedules = new Map();
+const RESCHEDULE_FLUSH_MS = 1000;
+const RESCHEDULE_RETRY_MS = 10000;
+let rescheduleTimer = null;
+
+async function flushReschedules() {
+  rescheduleTimer = null;
+  if (pendingReschedules.size === 0) return;
+
+  // Reschedules arriving during the write wait for the next flush
+  const batch = new Map(pendingReschedules);
+  pendingReschedules.clear();
+
+  const updatedAt = new Date();
+  const operations = [];
+  for (const [alarmId, nextFireAt] of batch) {
+    operations.push({
+      updateOne: {
+        filter: { _id: new ObjectId(alarmId) },
+        update: { $set: { nextFireAt, updatedAt } }
+      }
+    });
+  }
+
+  try {
+    const alarmsCollection = await getCollection(DB_NAME, ALARMS_COLLECTION);
+    await alarmsCollection.bulkWrite(operations, { ordered: false });
+  } catch (error) {
+    console.error('Error persisting alarm reschedules, will retry:', error);
+    // Put the batch back unless a newer reschedule replaced an entry
+    for (const [alarmId, nextFireAt] of batch) {
+      if (!pendingReschedules.has(alarmId)) {
+        pendingReschedules.set(alarmId, nextFireAt);
+      }
+    }
+    if (!rescheduleTimer) {
+      rescheduleTimer = setTimeout(flushReschedules, RESCHEDULE_RETRY_MS);
+    }
+  }
+}
+
+// Every fired alarm is handed to the push queue
+const alarmEngine = createAlarmEngine({
+  dispatch: (entry) => pushService.enqueue(entry.userId, buildPushPayload(entry)),
+  onReschedule: (alarmId, nextFireAt) => {
+    pendingReschedules.set(alarmId, nextFireAt);
+    if (!rescheduleTimer) {
+      rescheduleTimer = setTimeout(flushReschedules, RESCHEDULE_FLUSH_MS);
+    }
+  }
+});
+
+// Add the derived dayMask/minutes/nextFireAt fields to an alarm document.
+// updatedAt is stamped by the server so delta sync cursors compare real
+// Dates from a single clock.
+function withSchedule(document) {
+  return { ...document, ...deriveSchedule(document), updatedAt: new Date() };
+}
+
+// Recompute the derived fields of a stored alarm after a partial update
+async function refreshSchedule(mongoCollection, document) {
+  if (!document) return document;
+
+  const schedule = deriveSchedule(document);
+  if (schedule.dayMask === document.dayMask &&
+      schedule.minutes === document.minutes &&
+      schedule.nextFireAt === document.nextFireAt) {
+    return document;
+  }
+
+  const updatedAt = new Date();
+  await mongoCollection.updateOne({ _id: document._id }, { $set: { ...schedule, updatedAt } });
+  return { ...document, ...schedule, updatedAt };
+}
+
+// Fill in derived fields for alarms written before they existed, and move
+// any nextFireAt that passed while the server was down
+async function backfillSchedules(alarmsCollection) {
+  const now = Date.now();
+  const cursor = alarmsCollection.find({
+    $or: [
+      { dayMask: { $exists: false } },
+      { isEnabled: true, nextFireAt: { $not: { $gt: now } } }
+    ]
+  });
+
+  let operations = [];
+  let count = 0;
+  for await (const alarm of cursor) {
+    operations.push({
+      updateOne: {
+        filter: { _id: alarm._id },
+        update: { $set: { ...deriveSchedule(alarm, now), updatedAt: new Date() } }
+      }
+    });
+    if (operations.length === 1000) {
+      await alarmsCollection.bulkWrite(operations, { ordered: false });
+      count += operations.length;
+      operations = [];
+    }
+  }
+  if (operations.length > 0) {
+    await alarmsCollection.bulkWrite(operations, { ordered: false });
+    count += operations.length;
+  }
+  return count;
+}
+
+// Users written by older clients carry ISO string timestamps; convert them
+// in place so the collection only holds Dates
+async function convertUserTimestamps() {
+  const usersCollection = await getCollection(DB_NAME, USERS_COLLECTION);
+  const toDate = field => ({
+    $convert: { input: `$${field}`, to: 'date', onError: '$$NOW', onNull: '$$NOW' }
+  });
+
+  const converted = await usersCollection.updateMany(
+    { $or: [{ updatedAt: { $type: 'string' } }, { createdAt: { $type: 'string' } }] },
+    [{ $set: { updatedAt: toDate('updatedAt'), createdAt: toDate('createdAt') } }]
+  );
+  if (converted.modifiedCount > 0) {
+    console.log(`Converted timestamps on ${converted.modifiedCount} users`);
+  }
+}
+
+// Load all enabled alarms into the engine and start firing
+async function startAlarmEngine() {
+  const alarmsCollection = await getCollection(DB_NAME, ALARMS_COLLECTION);
+
+  const backfilled = await backfillSchedules(alarmsCollection);
+  if (backfilled > 0) {
+    console.log(`Recomputed schedule for ${backfilled} alarms`);
+  }
+
+  // Older clients stamped updatedAt as a string; sync cursors need Dates.
+  // These are restamped to now so delta sync picks them up once more.
+  const restamped = await alarmsCollection.updateMany(
+    { updatedAt: { $not: { $type: 'date' } } },
+    [{ $set: { updatedAt: '$$NOW' } }]
+  );
+  if (restamped.modifiedCount > 0) {
+    console.log(`Restamped updatedAt on ${restamped.modifiedCount} alarms`);
+  }
+
+  // Alarms written before editedAt existed take their last updatedAt, so
+  // clients holding that value can still make conditional edits
+  const versioned = await alarmsCollection.updateMany(
+    { editedAt: { $exists: false } },
+    [{ $set: { editedAt: '$updatedAt' } }]
+  );
+  if (versioned.modifiedCount > 0) {
+    console.log(`Set editedAt on ${versioned.modifiedCount} alarms`);
+  }
+
+  const cursor = alarmsCollection.find(
+    { isEnabled: true, nextFireAt: { $ne: null } },
+    {
+      sort: { nextFireAt: 1 },
+      projection: { userId: 1, label: 1, time: 1, dayMask: 1, minutes: 1, nextFireAt: 1, timeZone: 1, isEnabled: 1 }
+    }
+  );
+
+  const count = await alarmEngine.load(cursor);
+  alarmEngine.start();
+  console.log(`Alarm engine started with ${count} scheduled alarms`);
+}
+
+// Enabled alarms firing within the next `windowMs`, using the nextFireAt index
+async function findAlarmsFiringWithin(windowMs, projection) {
+  const now = Date.now();
+  const alarmsCollection = await getCollection(DB_NAME, ALARMS_COLLECTION);
+  return alarmsCollection
+    .find(
+      { isEnabled: true, nextFireAt: { $gt: now, $lte: now + windowMs } },
+      { sort: { nextFireAt: 1 }, projection }
+    )
+    .toArray();
+}
+
+// Keep the engine in step with writes made through the generic endpoints
+function isAlarmsCollection(collection, database) {
+  return collection === ALARMS_COLLECTION && (!database || database === DB_NAME);
+}
+
+function syncAlarmEngine(collection, database, document, deletedId) {
+  if (!isAlarmsCollection(collection, database)) return;
+
+  if (deletedId) {
+    alarmEngine.remove(deletedId);
+  } else if (document) {
+    alarmEngine.upsert(document);
+  }
+}
+
 // Process filter to handle ObjectIds
 function processFilter(filter) {
   const processedFilter = { ...filter };
@@ -69,113 +285,418 @@ function processFilter(filter) {
   return processedFilter;
 }
 
-// Find documents endpoint
-app.post('/api/find', async (req, res) => {
-  try {
-    const { collection, database, filter, options } = req.body;
+// Errors the client caused; surfaced with their status instead of a 500
+function requestError(statusCode, message) {
+  const error = new Error(message);
+  error.statusCode = statusCode;
+  return error;
+}
+
+// Queries the proxy will run must match a shape declared in indexes.js.
+// QUERY_SHAPE_MODE=log only reports unindexed shapes instead of rejecting them.
+const QUERY_SHAPE_MODE = process.env.QUERY_SHAPE_MODE === 'log' ? 'log' : 'reject';
+const unindexedQueries = new Map();
+
+// Throws a 400 for unindexed shapes unless running in log mode
+function checkQueryShape(collection, filter, sort) {
+  const shape = describeQueryShape(filter, sort);
+  if (isAllowedQueryShape(collection, shape)) return;
 
-    const mongoCollection = await getCollection(database, collection);
-    const processedFilter = processFilter(filter || {});
+  const description = `${collection} filter {${shape.filter.join(',')}} sort {${shape.sort.join(',')}}`;
+  unindexedQueries.set(description, (unindexedQueries.get(description) || 0) + 1);
+  console.warn(`Unindexed query shape: ${description}`);
 
-    let query = mongoCollection.find(processedFilter);
+  if (QUERY_SHAPE_MODE === 'reject') {
+    throw requestError(400, `Query shape is not indexed: ${description}`);
+  }
+}
+
+// Find documents
+async function findOperation({ collection, database, filter, options }) {
+  checkQueryShape(collection, filter || {}, options?.sort);
+
+  const mongoCollection = await getCollection(database, collection);
+  const processedFilter = processFilter(filter || {});
+
+  let query = mongoCollection.find(processedFilter);
+
+  if (options?.sort) {
+    query = query.sort(options.sort);
+  }
+
+  if (options?.projection) {
+    query = query.project(options.projection);
+  }
 
-    if (options?.sort) {
-      query = query.sort(options.sort);
+  if (options?.limit) {
+    query = query.limit(options.limit);
+  }
+
+  const documents = await query.toArray();
+  return { documents };
+}
+
+// Find one document
+async function findOneOperation({ collection, database, filter }) {
+  checkQueryShape(collection, filter || {});
+
+  const mongoCollection = await getCollection(database, collection);
+  const processedFilter = processFilter(filter || {});
+
+  const document = await mongoCollection.findOne(processedFilter);
+  return { document };
+}
+
+// Insert one document
+// Timestamps are stamped here as BSON Dates, never taken from the client,
+// so every collection stores one type and one clock. Alarms also get
+// editedAt, which only writes through this proxy ever move (see
+// updateOneOperation).
+async function insertOneOperation({ collection, database, document }) {
+  const mongoCollection = await getCollection(database, collection);
+  const now = new Date();
+  const stamped = { ...document, createdAt: now, updatedAt: now };
+  const documentToInsert = isAlarmsCollection(collection, database)
+    ? withSchedule({ ...stamped, editedAt: now })
+    : stamped;
+
+  const result = await mongoCollection.insertOne(documentToInsert);
+  const insertedDocument = {
+    ...documentToInsert,
+    _id: result.insertedId
+  };
+
+  syncAlarmEngine(collection, database, insertedDocument);
+  return { document: insertedDocument };
+}
+
+// Update one document. The update is applied with a single
+// findOneAndUpdate; options.returnDocument picks what comes back:
+// 'after' (default), 'before', or 'none' for fire-and-forget writes.
+// options.upsert inserts when nothing matches, with `setOnInsert` fields
+// applied only to the new document. options.ifUpdatedAt makes the write
+// conditional: if the document's updatedAt moved on, it fails with a 409.
+// options.ifEditedAt does the same against an alarm's editedAt, which
+// only these client writes bump: the engine's reschedules and schedule
+// refreshes move updatedAt (for delta sync) but are not edits, so they
+// must not turn a user's pending change into a conflict.
+const RETURN_DOCUMENT_MODES = ['after', 'before', 'none'];
+
+async function updateOneOperation({ collection, database, filter, update, setOnInsert, options }) {
+  const returnDocument = options?.returnDocument || 'after';
+  const upsert = options?.upsert === true;
+
+  if (!RETURN_DOCUMENT_MODES.includes(returnDocument)) {
+    throw requestError(400, `returnDocument must be one of ${RETURN_DOCUMENT_MODES.join(', ')}`);
+  }
+
+  const mongoCollection = await getCollection(database, collection);
+  const processedFilter = processFilter(filter || {});
+  const isAlarms = isAlarmsCollection(collection, database);
+
+  const condition = options?.ifEditedAt
+    ? { field: 'editedAt', value: options.ifEditedAt }
+    : options?.ifUpdatedAt
+      ? { field: 'updatedAt', value: options.ifUpdatedAt }
+      : null;
+  const conditionalFilter = condition
+    ? { ...processedFilter, [condition.field]: new Date(condition.value) }
+    : processedFilter;
+
+  // A conditional write that matched nothing is a conflict if the
+  // document still exists
+  const checkConflict = async () => {
+    if (condition && await mongoCollection.findOne(processedFilter, { projection: { _id: 1 } })) {
+      throw requestError(409, `Document's ${condition.field} no longer matches`);
     }
+  };
 
-    if (options?.projection) {
-      query = query.project(options.projection);
+  // updatedAt (and createdAt on upsert inserts) are server Dates, as in
+  // insertOneOperation. A full alarm edit carries every schedule input, so
+  // the derived fields go out with the same write instead of a follow-up
+  // refreshSchedule.
+  const now = new Date();
+  const updateDocument = { $set: { ...update, updatedAt: now } };
+  if (isAlarms) {
+    updateDocument.$set.editedAt = now;
+  }
+  if (isAlarms && update?.time !== undefined && update?.days !== undefined && update?.isEnabled !== undefined) {
+    Object.assign(updateDocument.$set, deriveSchedule(update));
+  }
+  if (upsert) {
+    updateDocument.$setOnInsert = { ...setOnInsert, createdAt: now };
+  }
+
+  // The alarm engine needs the written document, so alarms always read it back
+  if (returnDocument === 'none' && !isAlarms) {
+    const result = await mongoCollection.updateOne(conditionalFilter, updateDocument, { upsert });
+    if (result.matchedCount === 0 && !result.upsertedId) {
+      await checkConflict();
     }
+    return {
+      success: result.matchedCount > 0 || Boolean(result.upsertedId),
+      upsertedId: result.upsertedId
+    };
+  }
 
-    if (options?.limit) {
-      query = query.limit(options.limit);
+  let document = await mongoCollection.findOneAndUpdate(conditionalFilter, updateDocument, {
+    upsert,
+    returnDocument: returnDocument === 'before' ? 'before' : 'after'
+  });
+  if (!document && !upsert) {
+    await checkConflict();
+  }
+
+  if (isAlarms) {
+    // A pre-image plus the $set fields is the alarm as written
+    let written = document;
+    if (returnDocument === 'before') {
+      written = document
+        ? { ...document, ...updateDocument.$set }
+        : upsert ? await mongoCollection.findOne(processedFilter) : null;
     }
 
-    const documents = await query.toArray();
-    res.json({ documents });
-  } catch (error) {
-    console.error('Error finding documents:', error);
-    res.status(500).json({ error: error.message });
+    written = await refreshSchedule(mongoCollection, written);
+    syncAlarmEngine(collection, database, written);
+    if (returnDocument !== 'before') {
+      document = written;
+    }
   }
+
+  if (returnDocument === 'none') {
+    return { success: Boolean(document) };
+  }
+  return { document };
+}
+
+// Delete one document
+async function deleteOneOperation({ collection, database, filter }) {
+  const mongoCollection = await getCollection(database, collection);
+  const processedFilter = processFilter(filter || {});
+
+  // Deleted alarms leave a tombstone for delta sync
+  if (isAlarmsCollection(collection, database)) {
+    const deleted = await mongoCollection.findOneAndDelete(processedFilter, {
+      projection: { _id: 1, userId: 1 }
+    });
+    if (deleted) {
+      syncAlarmEngine(collection, database, null, deleted._id);
+      await recordAlarmTombstone(deleted);
+    }
+    return {
+      success: Boolean(deleted),
+      deletedCount: deleted ? 1 : 0
+    };
+  }
+
+  const result = await mongoCollection.deleteOne(processedFilter);
+  return {
+    success: result.deletedCount === 1,
+    deletedCount: result.deletedCount
+  };
+}
+
+// Operations exposed by the generic proxy, with the label used in error logs
+const PROXY_OPERATIONS = {
+  find: { run: findOperation, label: 'finding documents' },
+  findOne: { run: findOneOperation, label: 'finding document' },
+  insertOne: { run: insertOneOperation, label: 'inserting document' },
+  updateOne: { run: updateOneOperation, label: 'updating document' },
+  deleteOne: { run: deleteOneOperation, label: 'deleting document' }
+};
+
+function errorStatus(error) {
+  return error.statusCode || 500;
+}
+
+for (const [name, operation] of Object.entries(PROXY_OPERATIONS)) {
+  app.post(`/api/${name}`, async (req, res) => {
+    try {
+      res.json(await operation.run(req.body));
+    } catch (error) {
+      console.error(`Error ${operation.label}:`, error);
+      res.status(errorStatus(error)).json({ error: error.message });
+    }
+  });
+}
+
+// Run several proxy operations in one request. Operations run one at a
+// time in the order given; each gets its own result or error, so one
+// failure doesn't affect the others.
+const MAX_BATCH_OPERATIONS = 100;
+
+app.post('/api/batch', async (req, res) => {
+  const { operations } = req.body;
+
+  if (!Array.isArray(operations) || operations.length === 0) {
+    return res.status(400).json({ error: 'operations must be a non-empty array' });
+  }
+  if (operations.length > MAX_BATCH_OPERATIONS) {
+    return res.status(400).json({ error: `A batch can hold at most ${MAX_BATCH_OPERATIONS} operations` });
+  }
+
+  const results = [];
+  for (const entry of operations) {
+    // A malformed entry fails on its own, like any other operation
+    if (!entry || typeof entry !== 'object' || Array.isArray(entry)) {
+      results.push({ status: 400, error: 'Each operation must be an object' });
+      continue;
+    }
+
+    const { op, ...body } = entry;
+    const operation = typeof op === 'string' && Object.hasOwn(PROXY_OPERATIONS, op)
+      ? PROXY_OPERATIONS[op]
+      : null;
+    if (!operation) {
+      results.push({ status: 400, error: `Unknown operation: ${op}` });
+      continue;
+    }
+
+    try {
+      results.push({ status: 200, ...(await operation.run(body)) });
+    } catch (error) {
+      console.error(`Error ${operation.label} in batch:`, error);
+      results.push({ status: errorStatus(error), error: error.message });
+    }
+  }
+
+  res.json({ results });
 });
 
-// Find one document endpoint
-app.post('/api/findOne', async (req, res) => {
+// ============ USER ENDPOINTS ============
+
+// Plant progress a user starts with
+const NEW_USER_DEFAULTS = {
+  plantHealth: 100,
+  plantLevel: 1
+};
+
+// Find the user by Google ID, creating it on first login. Profile fields
+// are refreshed every time; defaults only apply when the user is created.
+// Goes through the proxy's upsert path so timestamps are stamped the same way.
+async function upsertUserProfile({ googleId, email, name, picture }) {
+  const { document } = await updateOneOperation({
+    collection: USERS_COLLECTION,
+    database: DB_NAME,
+    filter: { googleId },
+    update: { email, name, picture },
+    setOnInsert: NEW_USER_DEFAULTS,
+    options: { upsert: true }
+  });
+  return document;
+}
+
+// Apply a plant health delta atomically: clamp to 0-100 and derive the
+// level (1-5, one per 20 points) in a single pipeline update, so concurrent
+// snooze and dismiss events can't overwrite each other
+app.post('/api/users/:id/plantHealth', async (req, res) => {
   try {
-    const { collection, database, filter } = req.body;
+    const delta = Number(req.body?.delta);
+    if (!Number.isFinite(delta)) {
+      return res.status(400).json({ error: 'delta must be a number' });
+    }
 
-    const mongoCollection = await getCollection(database, collection);
-    const processedFilter = processFilter(filter || {});
+    let userId;
+    try {
+      userId = new ObjectId(req.params.id);
+    } catch (error) {
+      return res.status(400).json({ error: 'Invalid user id' });
+    }
 
-    const document = await mongoCollection.findOne(processedFilter);
+    const usersCollection = await getCollection(DB_NAME, USERS_COLLECTION);
+    const health = {
+      $max: [0, { $min: [100, { $add: [{ $ifNull: ['$plantHealth', 100] }, delta] }] }]
+    };
+
+    const document = await usersCollection.findOneAndUpdate(
+      { _id: userId },
+      [
+        { $set: { plantHealth: health, updatedAt: '$$NOW' } },
+        { $set: { plantLevel: { $max: [1, { $ceil: { $divide: ['$plantHealth', 20] } }] } } }
+      ],
+      { returnDocument: 'after' }
+    );
+
+    if (!document) {
+      return res.status(404).json({ error: 'User not found' });
+    }
     res.json({ document });
   } catch (error) {
-    console.error('Error finding document:', error);
+    console.error('Error updating plant health:', error);
     res.status(500).json({ error: error.message });
   }
 });
 
-// Insert one document endpoint
-app.post('/api/insertOne', async (req, res) => {
-  try {
-    const { collection, database, document } = req.body;
+// ============ PUSH ENDPOINTS ============
 
-    const mongoCollection = await getCollection(database, collection);
-
-    const result = await mongoCollection.insertOne(document);
-    res.json({
-      document: {
-        ...document,
-        _id: result.insertedId
-      }
-    });
-  } catch (error) {
-    console.error('Error inserting document:', error);
-    res.status(500).json({ error: error.message });
+// VAPID public key the browser needs to create a push subscription
+app.get('/api/push/vapidPublicKey', (req, res) => {
+  if (!pushService.publicKey) {
+    return res.status(404).json({ error: 'Web Push is not configured' });
   }
+  res.json({ publicKey: pushService.publicKey });
 });
 
-// Update one document endpoint
-app.post('/api/updateOne', async (req, res) => {
+// Register a browser push subscription for a user
+app.post('/api/push/subscribe', async (req, res) => {
   try {
-    const { collection, database, filter, update } = req.body;
-
-    const mongoCollection = await getCollection(database, collection);
-    const processedFilter = processFilter(filter || {});
+    const { userId, subscription } = req.body;
 
-    await mongoCollection.updateOne(
-      processedFilter,
-      { $set: update }
-    );
+    if (!userId || !subscription?.endpoint) {
+      return res.status(400).json({ error: 'userId and subscription are required' });
+    }
 
-    // Get updated document
-    const updatedDocument = await mongoCollection.findOne(processedFilter);
-    res.json({ document: updatedDocument });
+    await pushService.subscribe(userId, subscription);
+    res.json({ success: true });
   } catch (error) {
-    console.error('Error updating document:', error);
+    console.error('Error saving push subscription:', error);
     res.status(500).json({ error: error.message });
   }
 });
 
-// Delete one document endpoint
-app.post('/api/deleteOne', async (req, res) => {
+// Remove a browser push subscription
+app.post('/api/push/unsubscribe', async (req, res) => {
   try {
-    const { collection, database, filter } = req.body;
+    const { endpoint } = req.body;
 
-    const mongoCollection = await getCollection(database, collection);
-    const processedFilter = processFilter(filter || {});
+    if (!endpoint) {
+      return res.status(400).json({ error: 'endpoint is required' });
+    }
 
-    const result = await mongoCollection.deleteOne(processedFilter);
-    res.json({
-      success: result.deletedCount === 1,
-      deletedCount: result.deletedCount
-    });
+    await pushService.unsubscribe(endpoint);
+    res.json({ success: true });
   } catch (error) {
-    console.error('Error deleting document:', error);
+    console.error('Error removing push subscription:', error);
     res.status(500).json({ error: error.message });
   }
 });
 
+// Local stand-in push receiver, used with PUSH_RECEIVER_URL outside production
+const receivedPushes = [];
+const MAX_RECEIVED_PUSHES = 1000;
+
+if (process.env.NODE_ENV !== 'production') {
+  app.post('/api/push/receiver', (req, res) => {
+    receivedPushes.push({ ...req.body, receivedAt: Date.now() });
+    if (receivedPushes.length > MAX_RECEIVED_PUSHES) {
+      receivedPushes.shift();
+    }
+    res.status(201).json({ success: true });
+  });
+
+  app.get('/api/push/receiver', (req, res) => {
+    res.json({ pushes: receivedPushes });
+  });
+}
+
+// Scheduler and delivery counters
+app.get('/api/push/stats', (req, res) => {
+  res.json({
+    engine: alarmEngine.getStats(),
+    push: pushService.getStats()
+  });
+});
+
 // ============ TTS PROXY ENDPOINTS ============
 
 // Available TTS models
@@ -208,9 +729,10 @@ const TTS_MODELS = {
         throw new Error(`HuggingFace API error (${response.status}): ${response.statusText} - ${errorText}`);
       }
 
+      // Hand back the body stream so audio can be piped through as it arrives
       return {
-        buffer: await response.buffer(),
-        contentType: 'audio/mpeg'
+        body: response.body,
+        contentType: response.headers.get('content-type') || 'audio/mpeg'
       };
     }
   },
@@ -243,9 +765,10 @@ const TTS_MODELS = {
         throw new Error(`HuggingFace API error (${response.status}): ${response.statusText} - ${errorText}`);
       }
 
+      // Hand back the body stream so audio can be piped through as it arrives
       return {
-        buffer: await response.buffer(),
-        contentType: 'audio/mpeg'
+        body: response.body,
+        contentType: response.headers.get('content-type') || 'audio/mpeg'
       };
     }
   }
@@ -254,64 +777,410 @@ const TTS_MODELS = {
 // Change the default model to something more reliable
 const CURRENT_TTS_MODEL = 'microsoft-speecht5';
 
-// Proxy endpoint for TTS API
-app.post('/api/tts-proxy', async (req, res) => {
+// Model actually used for synthesis (unknown ids fall back to VITS)
+const TTS_MODEL_ID = TTS_MODELS[CURRENT_TTS_MODEL] ? CURRENT_TTS_MODEL : 'vits-female';
+const TTS_FALLBACK_MODEL_ID = 'vits-female';
+
+// Synthesized audio is cached by hash of model + text
+const ttsCache = createTtsCache({
+  dir: process.env.TTS_CACHE_DIR || path.join(process.cwd(), 'cache', 'tts'),
+  maxMemoryBytes: Number(process.env.TTS_CACHE_MEMORY_BYTES) || undefined,
+  ttlMs: process.env.TTS_CACHE_TTL_DAYS ? Number(process.env.TTS_CACHE_TTL_DAYS) * 24 * 60 * 60 * 1000 : undefined
+});
+
+// Concurrent requests for the same uncached text share one upstream call
+const ttsFlight = createSingleflight('tts');
+
+// Cached audio never changes for a given key, so clients may keep it a day
+const TTS_CACHE_CONTROL = 'public, max-age=86400, immutable';
+
+// Collapse whitespace so trivially different strings share a cache entry
+function normalizeTtsText(text) {
+  return String(text).replace(/\s+/g, ' ').trim();
+}
+
+// Run the configured model, falling back to VITS if it fails to start.
+// Resolves as soon as the upstream responds, while the audio is still arriving.
+async function startSpeechSynthesis(text) {
+  const modelConfig = TTS_MODELS[TTS_MODEL_ID];
+  console.log(`Using TTS model: ${modelConfig.name} for text: "${text.substring(0, 30)}${text.length > 30 ? '...' : ''}"`);
+
   try {
-    const { text } = req.body;
+    return await modelConfig.process(text);
+  } catch (modelError) {
+    console.error(`Error with ${modelConfig.name}:`, modelError);
 
-    if (!text) {
-      return res.status(400).json({ error: 'Text input is required' });
+    if (TTS_MODEL_ID === TTS_FALLBACK_MODEL_ID) {
+      throw modelError;
     }
 
-    // Get the selected model
-    const modelConfig = TTS_MODELS[CURRENT_TTS_MODEL] || TTS_MODELS['vits-female'];
+    console.log('Falling back to VITS female voice...');
+    try {
+      return await TTS_MODELS[TTS_FALLBACK_MODEL_ID].process(text);
+    } catch (fallbackError) {
+      console.error('Fallback to VITS failed:', fallbackError);
+      throw modelError; // Throw the original error
+    }
+  }
+}
 
-    console.log(`Using TTS model: ${modelConfig.name} for text: "${text.substring(0, 30)}${text.length > 30 ? '...' : ''}"`);
+// Start (or join) the upstream stream for a cache key. The audio is
+// spooled into the cache's file for the key and committed once complete;
+// the key stays in flight until then so late arrivals join the running
+// stream instead of refetching.
+function joinSpeechStream(key, text) {
+  return ttsFlight.run(
+    key,
+    async () => {
+      const upstream = await startSpeechSynthesis(text);
+      const spoolPath = await ttsCache.spoolPath(key);
+      const broadcast = new AudioBroadcast(upstream.contentType, spoolPath).consume(upstream.body);
 
-    try {
-      // Process the text with the selected model
-      const result = await modelConfig.process(text);
+      broadcast.finished
+        .then(size => ttsCache.commit(key, upstream.contentType, size))
+        .catch(error => console.error('TTS stream failed:', error.message));
 
-      if (!result.buffer || result.buffer.length === 0) {
-        throw new Error('Empty audio response received');
-      }
+      return broadcast;
+    },
+    broadcast => broadcast.finished
+  );
+}
+
+// Shared handler for GET (cacheable by the browser) and POST requests
+async function handleTtsRequest(req, res) {
+  try {
+    const rawText = req.method === 'GET' ? req.query.text : req.body?.text;
+
+    if (!rawText) {
+      return res.status(400).json({ error: 'Text input is required' });
+    }
+
+    const text = normalizeTtsText(rawText);
+    const key = ttsCacheKey(TTS_MODEL_ID, text);
+    const etag = `"${key}"`;
+
+    if (req.get('If-None-Match') === etag) {
+      return res.status(304).set({ 'ETag': etag, 'Cache-Control': TTS_CACHE_CONTROL }).end();
+    }
 
-      // Set appropriate headers
+    const entry = await ttsCache.get(key);
+    if (entry) {
       res.set({
-        'Content-Type': result.contentType,
-        'Content-Length': result.buffer.length
+        'Content-Type': entry.contentType,
+        'Content-Length': entry.buffer.length,
+        'ETag': etag,
+        'Cache-Control': TTS_CACHE_CONTROL,
+        'X-Cache': `HIT-${entry.source.toUpperCase()}`
       });
-
-      // Send the audio data
-      res.send(result.buffer);
-    } catch (modelError) {
-      console.error(`Error with ${modelConfig.name}:`, modelError);
-
-      // Try fallback if the current model failed
-      if (CURRENT_TTS_MODEL !== 'vits-female') {
-        console.log('Falling back to VITS female voice...');
-        try {
-          const fallbackResult = await TTS_MODELS['vits-female'].process(text);
-
-          res.set({
-            'Content-Type': fallbackResult.contentType,
-            'Content-Length': fallbackResult.buffer.length
-          });
-
-          return res.send(fallbackResult.buffer);
-        } catch (fallbackError) {
-          console.error('Fallback to VITS failed:', fallbackError);
-          throw modelError; // Throw the original error
-        }
-      } else {
-        throw modelError;
-      }
+      return res.send(entry.buffer);
     }
 
+    // Cache miss: stream the audio through while it is being synthesized
+    const broadcast = await joinSpeechStream(key, text);
+    res.set({
+      'Content-Type': broadcast.contentType,
+      'ETag': etag,
+      'Cache-Control': TTS_CACHE_CONTROL,
+      'X-Cache': 'MISS'
+    });
+
+    try {
+      await broadcast.pipeTo(res);
+    } catch (streamError) {
+      // Headers are already sent, so all we can do is drop the connection
+      console.error('TTS stream to client failed:', streamError.message);
+      res.destroy(streamError);
+    }
   } catch (error) {
     console.error('TTS proxy error:', error);
     res.status(500).json({ error: 'TTS proxy error: ' + error.message });
   }
+}
+
+// Proxy endpoint for TTS API
+app.get('/api/tts-proxy', handleTtsRequest);
+app.post('/api/tts-proxy', handleTtsRequest);
+
+// TTS cache counters
+app.get('/api/tts-proxy/stats', (req, res) => {
+  res.json(ttsCache.getStats());
+});
+
+// ============ WEATHER ENDPOINTS ============
+
+const weatherService = createWeatherService({
+  getCollection: (collectionName) => getCollection(DB_NAME, collectionName)
+});
+
+function isValidCoordinate(lat, lon) {
+  return Number.isFinite(lat) && Number.isFinite(lon) && Math.abs(lat) <= 90 && Math.abs(lon) <= 180;
+}
+
+// Remember the user's tile so the prefetcher can warm it before alarms
+function rememberWeatherTile(userId, tile) {
+  if (!userId || !ObjectId.isValid(userId)) return;
+
+  getCollection(DB_NAME, USERS_COLLECTION)
+    .then(users => users.updateOne(
+      { _id: new ObjectId(userId), weatherTile: { $ne: tile } },
+      { $set: { weatherTile: tile } }
+    ))
+    .catch(error => console.warn('Could not store user weather tile:', error.message));
+}
+
+// The part of a cached tile that is sent to clients
+function toWeatherResponse(weather) {
+  return {
+    tile: weather.tile,
+    fetchedAt: weather.fetchedAt,
+    expiresAt: weather.expiresAt,
+    data: weather.data
+  };
+}
+
+// Weather for a coordinate, served from the shared tile cache
+app.get('/api/weather', async (req, res) => {
+  try {
+    const lat = Number(req.query.lat);
+    const lon = Number(req.query.lon);
+
+    if (!isValidCoordinate(lat, lon)) {
+      return res.status(400).json({ error: 'Valid lat and lon are required' });
+    }
+
+    const weather = await weatherService.getWeather(lat, lon);
+    rememberWeatherTile(req.query.userId, weather.tile);
+
+    const maxAge = Math.max(0, Math.floor((weather.expiresAt.getTime() - Date.now()) / 1000));
+
+    res.set({
+      'Cache-Control': `public, max-age=${maxAge}`,
+      'X-Cache': weather.cached ? 'HIT' : 'MISS'
+    });
+    res.json(toWeatherResponse(weather));
+  } catch (error) {
+    console.error('Weather proxy error:', error);
+    res.status(502).json({ error: 'Weather proxy error: ' + error.message });
+  }
+});
+
+// Warm the tiles of users whose alarms fire soon, a few minutes ahead of
+// the morning peak, with one batched Open-Meteo request per 50 tiles
+const WEATHER_PREFETCH_INTERVAL_MS = (Number(process.env.WEATHER_PREFETCH_INTERVAL_MINUTES) || 5) * 60 * 1000;
+const WEATHER_PREFETCH_HORIZON_MS = 60 * 60 * 1000;
+
+async function prefetchWeatherForUpcomingAlarms() {
+  const alarms = await findAlarmsFiringWithin(WEATHER_PREFETCH_HORIZON_MS, { userId: 1 });
+  const userIds = [...new Set(alarms.map(alarm => alarm.userId))].filter(id => ObjectId.isValid(id));
+  if (userIds.length === 0) return;
+
+  const usersCollection = await getCollection(DB_NAME, USERS_COLLECTION);
+  const users = await usersCollection
+    .find(
+      { _id: { $in: userIds.map(id => new ObjectId(id)) }, weatherTile: { $exists: true } },
+      { projection: { weatherTile: 1 } }
+    )
+    .toArray();
+
+  const tiles = [...new Set(users.map(user => user.weatherTile))];
+  const refreshed = await weatherService.prefetchTiles(tiles);
+  if (refreshed > 0) {
+    console.log(`Prefetched weather for ${refreshed} tiles`);
+  }
+}
+
+function startWeatherPrefetcher() {
+  const run = () => prefetchWeatherForUpcomingAlarms().catch(error => {
+    console.error('Weather prefetch failed:', error);
+  });
+
+  run();
+  setInterval(run, WEATHER_PREFETCH_INTERVAL_MS).unref();
+}
+
+// ============ ALARM SYNC ENDPOINT ============
+
+const ALARM_TOMBSTONES_COLLECTION = 'alarmTombstones';
+
+// Tombstones live as long as the TTL index in indexes.js keeps them; a
+// cursor older than that can't be served as a delta
+const ALARM_TOMBSTONE_TTL_MS = ALARM_TOMBSTONE_TTL_SECONDS * 1000;
+
+// Writes stamped just before a read may commit just after it, so cursors
+// trail the clock a little and the boundary is re-sent ($gte)
+const SYNC_CURSOR_LAG_MS = 2000;
+
+async function recordAlarmTombstone(alarm) {
+  const tombstones = await getCollection(DB_NAME, ALARM_TOMBSTONES_COLLECTION);
+  await tombstones.replaceOne(
+    { _id: alarm._id },
+    { userId: alarm.userId, deletedAt: new Date() },
+    { upsert: true }
+  );
+}
+
+// Alarms changed and deleted since a cursor. Without a cursor, or with one
+// older than the tombstones, the full list comes back with reset: true.
+// Applying a response is idempotent, so re-sent boundary changes are harmless.
+app.get('/api/alarms/changes', async (req, res) => {
+  try {
+    const { userId } = req.query;
+    if (!userId) {
+      return res.status(400).json({ error: 'userId is required' });
+    }
+
+    const now = Date.now();
+    const since = Number(req.query.since);
+    const reset = !Number.isFinite(since) || since <= 0 || since < now - ALARM_TOMBSTONE_TTL_MS;
+    const sinceDate = new Date(reset ? 0 : since);
+
+    const alarmsCollection = await getCollection(DB_NAME, ALARMS_COLLECTION);
+    const tombstones = await getCollection(DB_NAME, ALARM_TOMBSTONES_COLLECTION);
+
+    const [alarms, deleted] = await Promise.all([
+      reset
+        ? alarmsCollection.find({ userId }).sort({ time: 1 }).toArray()
+        : alarmsCollection.find({ userId, updatedAt: { $gte: sinceDate } }).toArray(),
+      reset
+        ? []
+        : tombstones
+            .find({ userId, deletedAt: { $gte: sinceDate } }, { projection: { _id: 1 } })
+            .toArray()
+    ]);
+
+    res.json({
+      reset,
+      alarms,
+      deleted: deleted.map(tombstone => tombstone._id.toString()),
+      cursor: String(Math.max(reset ? 0 : since, now - SYNC_CURSOR_LAG_MS))
+    });
+  } catch (error) {
+    console.error('Error reading alarm changes:', error);
+    res.status(500).json({ error: error.message });
+  }
+});
+
+// ============ ALARM FEED ENDPOINT ============
+
+const alarmFeed = createAlarmFeed({
+  getDb: async () => (await connectToMongoDB()).db(DB_NAME),
+  collectionName: ALARMS_COLLECTION
+});
+
+const ALARM_FEED_HEARTBEAT_MS = 25000;
+
+// Server-Sent Events stream of one user's alarm changes: `upsert` events
+// carry the full alarm, `delete` events its id, and `status` events say
+// whether the change stream is live
+app.get('/api/alarms/stream', (req, res) => {
+  const { userId } = req.query;
+  if (!userId) {
+    return res.status(400).json({ error: 'userId is required' });
+  }
+
+  res.set({
+    'Content-Type': 'text/event-stream',
+    'Cache-Control': 'no-cache',
+    'Connection': 'keep-alive',
+    'X-Accel-Buffering': 'no'
+  });
+  res.flushHeaders();
+  res.write('retry: 5000\n\n');
+
+  const unsubscribe = alarmFeed.subscribe(userId, event => {
+    res.write(`event: alarm\ndata: ${JSON.stringify(event)}\n\n`);
+  });
+
+  // Comments keep proxies from closing an idle connection
+  const heartbeat = setInterval(() => res.write(': ping\n\n'), ALARM_FEED_HEARTBEAT_MS);
+
+  req.on('close', () => {
+    clearInterval(heartbeat);
+    unsubscribe();
+  });
+});
+
+// ============ BOOTSTRAP ENDPOINT ============
+
+// Everything the dashboard needs for its first frame in one response. The
+// user is upserted first (alarms are keyed by its _id); alarms, the next
+// alarm and weather are then gathered concurrently. Weather uses the
+// client's last known location, or the tile stored on the user, and is
+// left null rather than failing the whole bootstrap.
+function optionalWeather(lat, lon) {
+  return weatherService.getWeather(lat, lon).catch(error => {
+    console.warn('Bootstrap weather failed:', error.message);
+    return null;
+  });
+}
+
+app.post('/api/bootstrap', async (req, res) => {
+  try {
+    const { user: profile, location } = req.body;
+
+    if (!profile?.googleId) {
+      return res.status(400).json({ error: 'user.googleId is required' });
+    }
+
+    // Delta sync cursor for the alarm list returned below
+    const cursor = String(Date.now() - SYNC_CURSOR_LAG_MS);
+
+    const lat = Number(location?.lat);
+    const lon = Number(location?.lon);
+    const hasLocation = isValidCoordinate(lat, lon);
+
+    // With a known location the weather lookup doesn't wait for the user
+    const locationWeather = hasLocation ? optionalWeather(lat, lon) : null;
+
+    const user = await upsertUserProfile(profile);
+
+    const userId = user._id.toString();
+    const alarmsCollection = await getCollection(DB_NAME, ALARMS_COLLECTION);
+
+    let weatherLookup = locationWeather;
+    if (!weatherLookup && user.weatherTile) {
+      const center = decodeGeohashCenter(user.weatherTile);
+      weatherLookup = optionalWeather(center.lat, center.lon);
+    }
+
+    const [alarms, nextAlarms, weather] = await Promise.all([
+      alarmsCollection.find({ userId }).sort({ time: 1 }).toArray(),
+      alarmsCollection
+        .find({ userId, isEnabled: true, nextFireAt: { $gt: Date.now() } })
+        .sort({ nextFireAt: 1 })
+        .limit(1)
+        .toArray(),
+      weatherLookup
+    ]);
+
+    if (weather && hasLocation) {
+      rememberWeatherTile(userId, weather.tile);
+    }
+
+    res.json({
+      user,
+      alarms,
+      nextAlarm: nextAlarms[0] || null,
+      cursor,
+      weather: weather ? toWeatherResponse(weather) : null
+    });
+  } catch (error) {
+    console.error('Error bootstrapping dashboard:', error);
+    res.status(500).json({ error: error.message });
+  }
+});
+
+// Upstream call coalescing and cache counters
+app.get('/api/metrics', (req, res) => {
+  res.json({
+    singleflight: [ttsFlight.getStats(), weatherService.getFlightStats()],
+    ttsCache: ttsCache.getStats(),
+    weather: weatherService.getStats(),
+    alarmEngine: alarmEngine.getStats(),
+    push: pushService.getStats(),
+    alarmFeed: alarmFeed.getStats(),
+    unindexedQueries: Object.fromEntries(unindexedQueries)
+  });
 });
 
 // Health check endpoint
@@ -323,10 +1192,28 @@ app.get('/api/health', (req, res) => {
 app.listen(PORT, () => {
   console.log(`Server running on port ${PORT}`);
   console.log(`TTS proxy available at http://localhost:${PORT}/api/tts-proxy`);
+
+  // The engine's startup scan sorts on nextFireAt, so build indexes first
+  ensureIndexes(collectionName => getCollection(DB_NAME, collectionName))
+    .catch(error => {
+      console.error('Failed to create indexes:', error);
+    })
+    .then(startAlarmEngine)
+    .catch(error => {
+      console.error('Failed to start alarm engine:', error);
+    });
+
+  convertUserTimestamps().catch(error => {
+    console.error('Failed to convert user timestamps:', error);
+  });
+  startWeatherPrefetcher();
 });
 
 // Handle graceful shutdown
 process.on('SIGINT', async () => {
+  alarmEngine.stop();
+  alarmFeed.close();
+  await flushReschedules();
   console.log('Closing MongoDB connection...');
   if (client) {
     await client.close();
@@ -0,0 +1,59 @@
+// singleflight.js
+
+// Collapses concurrent identical upstream calls. While a call for a key is
+// in flight, later callers with the same key wait on the same promise
+// instead of starting their own fetch. The key is forgotten once the call
+// settles, so this never serves stale results (caching is a separate layer).
+// `holdUntil(result)` can keep the key in flight past settling, for results
+// such as streams that are still being filled when the promise resolves.
+
+export function createSingleflight(name) {
+  const inFlight = new Map();
+
+  const stats = {
+    calls: 0,
+    executions: 0,
+    shared: 0,
+    failures: 0
+  };
+
+  function run(key, fn, holdUntil) {
+    stats.calls++;
+
+    const existing = inFlight.get(key);
+    if (existing) {
+      stats.shared++;
+      return existing;
+    }
+
+    stats.executions++;
+    const promise = Promise.resolve()
+      .then(fn)
+      .catch(error => {
+        stats.failures++;
+        throw error;
+      });
+
+    inFlight.set(key, promise);
+    promise
+      .then(result => (holdUntil ? holdUntil(result) : undefined))
+      .catch(() => {})
+      .finally(() => {
+        inFlight.delete(key);
+      });
+
+    return promise;
+  }
+
+  function getStats() {
+    return {
+      name,
+      ...stats,
+      inFlight: inFlight.size,
+      // Share of calls that were answered by someone else's fetch
+      collapseRatio: stats.calls > 0 ? stats.shared / stats.calls : 0
+    };
+  }
+
+  return { run, getStats };
+}
@@ -0,0 +1,196 @@
+// ttsCache.js
+
+// Two-tier cache for synthesized speech. Entries are content addressed by a
+// hash of model + text. The first tier is an in-memory LRU bounded by total
+// bytes; the second is a directory on disk with a TTL, so audio survives
+// restarts and the memory tier can stay small. Streamed audio is written
+// straight into its disk entry (see spoolPath/commit) rather than
+// collected in memory first.
+
+import crypto from 'crypto';
+import fs from 'fs/promises';
+import path from 'path';
+
+const DEFAULT_MEMORY_BYTES = 64 * 1024 * 1024;
+const DEFAULT_TTL_MS = 30 * 24 * 60 * 60 * 1000;
+const SWEEP_INTERVAL_MS = 60 * 60 * 1000;
+
+// Content address of a piece of speech
+export function ttsCacheKey(modelId, text) {
+  return crypto.createHash('sha256').update(`${modelId}\n${text}`).digest('hex');
+}
+
+export function createTtsCache({
+  dir,
+  maxMemoryBytes = DEFAULT_MEMORY_BYTES,
+  ttlMs = DEFAULT_TTL_MS
+}) {
+  // Map iteration order doubles as LRU order (oldest first)
+  const memory = new Map();
+  let memoryBytes = 0;
+
+  const stats = {
+    memoryHits: 0,
+    diskHits: 0,
+    misses: 0,
+    evictions: 0
+  };
+
+  const dirReady = fs.mkdir(dir, { recursive: true }).catch(error => {
+    console.error(`Could not create TTS cache directory ${dir}:`, error);
+  });
+
+  function remember(key, entry) {
+    const existing = memory.get(key);
+    if (existing) {
+      memoryBytes -= existing.buffer.length;
+      memory.delete(key);
+    }
+
+    // Entries larger than the whole budget only live on disk
+    if (entry.buffer.length > maxMemoryBytes) return;
+
+    memory.set(key, entry);
+    memoryBytes += entry.buffer.length;
+
+    for (const [oldKey, oldEntry] of memory) {
+      if (memoryBytes <= maxMemoryBytes) break;
+      memory.delete(oldKey);
+      memoryBytes -= oldEntry.buffer.length;
+      stats.evictions++;
+    }
+  }
+
+  function filePaths(key) {
+    return {
+      audio: path.join(dir, `${key}.audio`),
+      meta: path.join(dir, `${key}.json`)
+    };
+  }
+
+  async function readFromDisk(key) {
+    const paths = filePaths(key);
+    try {
+      const meta = JSON.parse(await fs.readFile(paths.meta, 'utf8'));
+      if (Date.now() - meta.createdAt > ttlMs) {
+        await Promise.all([fs.rm(paths.audio, { force: true }), fs.rm(paths.meta, { force: true })]);
+        return null;
+      }
+
+      const buffer = await fs.readFile(paths.audio);
+      return { buffer, contentType: meta.contentType, createdAt: meta.createdAt };
+    } catch (error) {
+      if (error.code !== 'ENOENT') {
+        console.warn(`Could not read TTS cache entry ${key}:`, error.message);
+      }
+      return null;
+    }
+  }
+
+  async function writeToDisk(key, entry) {
+    await dirReady;
+    const paths = filePaths(key);
+    try {
+      // Audio first, metadata last: an entry only counts once its meta exists
+      await fs.writeFile(paths.audio, entry.buffer);
+      await fs.writeFile(paths.meta, JSON.stringify({
+        contentType: entry.contentType,
+        createdAt: entry.createdAt,
+        size: entry.buffer.length
+      }));
+    } catch (error) {
+      console.warn(`Could not write TTS cache entry ${key}:`, error.message);
+    }
+  }
+
+  // Look up an entry, promoting disk hits into memory
+  async function get(key) {
+    const cached = memory.get(key);
+    if (cached) {
+      memory.delete(key);
+      memory.set(key, cached);
+      stats.memoryHits++;
+      return { ...cached, source: 'memory' };
+    }
+
+    const stored = await readFromDisk(key);
+    if (stored) {
+      remember(key, stored);
+      stats.diskHits++;
+      return { ...stored, source: 'disk' };
+    }
+
+    stats.misses++;
+    return null;
+  }
+
+  // Where to stream audio for `key`. The file only becomes an entry once
+  // commit() writes its metadata.
+  async function spoolPath(key) {
+    await dirReady;
+    return filePaths(key).audio;
+  }
+
+  // Turn a fully spooled audio file into a cache entry. It is promoted to
+  // memory on its first hit, like any disk entry.
+  async function commit(key, contentType, size) {
+    try {
+      await fs.writeFile(filePaths(key).meta, JSON.stringify({
+        contentType,
+        createdAt: Date.now(),
+        size
+      }));
+    } catch (error) {
+      console.warn(`Could not write TTS cache entry ${key}:`, error.message);
+    }
+  }
+
+  async function set(key, buffer, contentType) {
+    const entry = { buffer, contentType, createdAt: Date.now() };
+    remember(key, entry);
+    await writeToDisk(key, entry);
+    return entry;
+  }
+
+  // Remove expired entries from disk
+  async function sweep() {
+    await dirReady;
+    try {
+      const files = await fs.readdir(dir);
+      const metas = new Set(files.filter(file => file.endsWith('.json')));
+      for (const file of files) {
+        // Audio left without metadata by a stream that never finished
+        if (file.endsWith('.audio') && !metas.has(file.replace(/\.audio$/, '.json'))) {
+          const audioPath = path.join(dir, file);
+          const { mtimeMs } = await fs.stat(audioPath);
+          if (Date.now() - mtimeMs > SWEEP_INTERVAL_MS) {
+            await fs.rm(audioPath, { force: true });
+          }
+          continue;
+        }
+        if (!file.endsWith('.json')) continue;
+
+        const paths = filePaths(file.slice(0, -'.json'.length));
+        const meta = JSON.parse(await fs.readFile(paths.meta, 'utf8'));
+        if (Date.now() - meta.createdAt > ttlMs) {
+          await Promise.all([fs.rm(paths.audio, { force: true }), fs.rm(paths.meta, { force: true })]);
+        }
+      }
+    } catch (error) {
+      console.warn('TTS cache sweep failed:', error.message);
+    }
+  }
+
+  const sweepTimer = setInterval(sweep, SWEEP_INTERVAL_MS);
+  sweepTimer.unref();
+
+  function getStats() {
+    return {
+      ...stats,
+      memoryEntries: memory.size,
+      memoryBytes
+    };
+  }
+
+  return { get, set, spoolPath, commit, sweep, getStats };
+}
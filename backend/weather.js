@@ -0,0 +1,234 @@
+// weather.js
+
+// Shared weather cache. Coordinates are snapped to a geohash tile, so
+// everyone in the same tile (about 5 x 5 km at the default precision) is
+// served from one Open-Meteo response. Responses live in a Mongo collection
+// with a TTL index (see indexes.js), and concurrent misses for a tile share one fetch.
+
+import fetch from 'node-fetch';
+import { createSingleflight } from './singleflight.js';
+
+const WEATHER_COLLECTION = 'weather';
+const WEATHER_API_ENDPOINT = 'https://api.open-meteo.com/v1';
+
+const TILE_PRECISION = Number(process.env.WEATHER_TILE_PRECISION) || 5;
+const CACHE_TTL_MS = (Number(process.env.WEATHER_CACHE_TTL_MINUTES) || 30) * 60 * 1000;
+
+// Open-Meteo accepts comma-separated coordinate lists; keep URLs reasonable
+const MAX_TILES_PER_BATCH = 50;
+
+// Tiles expiring within this margin are refreshed by the prefetcher
+const PREFETCH_MARGIN_MS = 10 * 60 * 1000;
+
+// Same fields the frontend has always asked Open-Meteo for
+const FORECAST_PARAMS =
+  '&current=temperature_2m,relative_humidity_2m,weather_code' +
+  '&hourly=temperature_2m,weather_code' +
+  '&daily=temperature_2m_max,temperature_2m_min' +
+  '&timezone=auto&forecast_days=2';
+
+const GEOHASH_ALPHABET = '0123456789bcdefghjkmnpqrstuvwxyz';
+
+// Encode a coordinate as a geohash of the given length
+export function encodeGeohash(lat, lon, precision = TILE_PRECISION) {
+  let latMin = -90, latMax = 90;
+  let lonMin = -180, lonMax = 180;
+  let hash = '';
+  let bits = 0;
+  let value = 0;
+  let evenBit = true;
+
+  while (hash.length < precision) {
+    if (evenBit) {
+      const mid = (lonMin + lonMax) / 2;
+      if (lon >= mid) {
+        value = (value << 1) | 1;
+        lonMin = mid;
+      } else {
+        value <<= 1;
+        lonMax = mid;
+      }
+    } else {
+      const mid = (latMin + latMax) / 2;
+      if (lat >= mid) {
+        value = (value << 1) | 1;
+        latMin = mid;
+      } else {
+        value <<= 1;
+        latMax = mid;
+      }
+    }
+    evenBit = !evenBit;
+
+    if (++bits === 5) {
+      hash += GEOHASH_ALPHABET[value];
+      bits = 0;
+      value = 0;
+    }
+  }
+
+  return hash;
+}
+
+// Center point of a geohash tile
+export function decodeGeohashCenter(hash) {
+  let latMin = -90, latMax = 90;
+  let lonMin = -180, lonMax = 180;
+  let evenBit = true;
+
+  for (const char of hash) {
+    const value = GEOHASH_ALPHABET.indexOf(char);
+    for (let bit = 4; bit >= 0; bit--) {
+      const isSet = (value >> bit) & 1;
+      if (evenBit) {
+        const mid = (lonMin + lonMax) / 2;
+        if (isSet) lonMin = mid; else lonMax = mid;
+      } else {
+        const mid = (latMin + latMax) / 2;
+        if (isSet) latMin = mid; else latMax = mid;
+      }
+      evenBit = !evenBit;
+    }
+  }
+
+  return {
+    lat: Number(((latMin + latMax) / 2).toFixed(4)),
+    lon: Number(((lonMin + lonMax) / 2).toFixed(4))
+  };
+}
+
+export function createWeatherService({ getCollection }) {
+  const flight = createSingleflight('weather');
+
+  const stats = {
+    hits: 0,
+    misses: 0,
+    upstreamFetches: 0,
+    prefetchedTiles: 0,
+    prefetchFailures: 0
+  };
+
+  async function fetchTile(tile) {
+    const { lat, lon } = decodeGeohashCenter(tile);
+    stats.upstreamFetches++;
+
+    const response = await fetch(
+      `${WEATHER_API_ENDPOINT}/forecast?latitude=${lat}&longitude=${lon}${FORECAST_PARAMS}`
+    );
+
+    if (!response.ok) {
+      throw new Error(`Open-Meteo error (${response.status}): ${response.statusText}`);
+    }
+
+    return response.json();
+  }
+
+  async function storeTile(tile, data) {
+    const fetchedAt = new Date();
+    const document = {
+      _id: tile,
+      data,
+      fetchedAt,
+      expiresAt: new Date(fetchedAt.getTime() + CACHE_TTL_MS)
+    };
+
+    const collection = await getCollection(WEATHER_COLLECTION);
+    await collection.replaceOne({ _id: tile }, document, { upsert: true });
+    return document;
+  }
+
+  // Cached tile document, or null if missing or expired. The TTL monitor
+  // only runs once a minute, so expiry is checked here as well.
+  async function readTile(tile) {
+    const collection = await getCollection(WEATHER_COLLECTION);
+    const document = await collection.findOne({ _id: tile });
+    return document && document.expiresAt > new Date() ? document : null;
+  }
+
+  // Weather for a coordinate, served from its tile
+  async function getWeather(lat, lon) {
+    const tile = encodeGeohash(lat, lon);
+
+    const cached = await readTile(tile);
+    if (cached) {
+      stats.hits++;
+      return { tile, ...cached, cached: true };
+    }
+
+    stats.misses++;
+    const document = await flight.run(tile, async () => storeTile(tile, await fetchTile(tile)));
+    return { tile, ...document, cached: false };
+  }
+
+  // Fetch many tiles with one Open-Meteo request; results come back as an
+  // array in the same order as the coordinates
+  async function fetchTileBatch(tiles) {
+    const centers = tiles.map(decodeGeohashCenter);
+    stats.upstreamFetches++;
+
+    const response = await fetch(
+      `${WEATHER_API_ENDPOINT}/forecast?` +
+      `latitude=${centers.map(center => center.lat).join(',')}` +
+      `&longitude=${centers.map(center => center.lon).join(',')}` +
+      FORECAST_PARAMS
+    );
+
+    if (!response.ok) {
+      throw new Error(`Open-Meteo error (${response.status}): ${response.statusText}`);
+    }
+
+    const data = await response.json();
+    return Array.isArray(data) ? data : [data];
+  }
+
+  // Warm the cache for the given tiles, skipping ones that stay fresh.
+  // A failed batch is logged and skipped so the others still get fetched.
+  // Returns how many tiles were refreshed.
+  async function prefetchTiles(tiles) {
+    const collection = await getCollection(WEATHER_COLLECTION);
+    const fresh = await collection
+      .find(
+        { _id: { $in: tiles }, expiresAt: { $gt: new Date(Date.now() + PREFETCH_MARGIN_MS) } },
+        { projection: { _id: 1 } }
+      )
+      .toArray();
+
+    const freshTiles = new Set(fresh.map(document => document._id));
+    const staleTiles = tiles.filter(tile => !freshTiles.has(tile));
+
+    let refreshed = 0;
+    for (let i = 0; i < staleTiles.length; i += MAX_TILES_PER_BATCH) {
+      const batch = staleTiles.slice(i, i + MAX_TILES_PER_BATCH);
+      try {
+        const results = await fetchTileBatch(batch);
+        // Tiles the upstream returned nothing for are left to on-demand fetches
+        const received = batch
+          .map((tile, index) => ({ tile, data: results[index] }))
+          .filter(({ data }) => data);
+        if (received.length < batch.length) {
+          console.warn(`Weather prefetch got ${received.length} of ${batch.length} tiles`);
+        }
+
+        await Promise.all(received.map(({ tile, data }) => storeTile(tile, data)));
+        stats.prefetchedTiles += received.length;
+        refreshed += received.length;
+      } catch (error) {
+        stats.prefetchFailures++;
+        console.error(`Weather prefetch batch of ${batch.length} tiles failed:`, error.message);
+      }
+    }
+
+    return refreshed;
+  }
+
+  function getStats() {
+    return { ...stats, tilePrecision: TILE_PRECISION };
+  }
+
+  return {
+    getWeather,
+    prefetchTiles,
+    getStats,
+    getFlightStats: flight.getStats
+  };
+}
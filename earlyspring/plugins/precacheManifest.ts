@@ -0,0 +1,85 @@
+// plugins/precacheManifest.ts
+
+// Writes the list of files the service worker precaches into the built
+// service-worker.js. The files in the output (hashed assets, public files,
+// index.html) are listed with a hash of their contents as revision, so the
+// worker's bytes change whenever any of them does and the browser installs
+// the new version, which then fetches only the changed files. Alarm sounds
+// and anything over MAX_PRECACHE_BYTES are left out: every install would
+// otherwise download them, and the worker caches them on first use instead.
+
+import { createHash } from 'node:crypto';
+import { readdir, readFile, stat, writeFile } from 'node:fs/promises';
+import path from 'node:path';
+import type { Plugin, ResolvedConfig } from 'vite';
+
+const SERVICE_WORKER = 'service-worker.js';
+const MANIFEST_PLACEHOLDER = 'self.__PRECACHE_MANIFEST';
+
+// Files the worker should not precache: itself, source maps, the
+// precompressed copies the server picks by Accept-Encoding, and the sounds
+// the worker caches at runtime
+const EXCLUDED = [/^service-worker\.js$/, /\.map$/, /\.(br|gz)$/, /^sounds\//];
+
+// Larger files are left to the runtime cache, with a warning
+const MAX_PRECACHE_BYTES = 512 * 1024;
+
+export interface PrecacheEntry {
+  url: string;
+  revision: string;
+}
+
+const listFiles = async (dir: string): Promise<string[]> => {
+  const entries = await readdir(dir, { withFileTypes: true, recursive: true });
+  return entries
+    .filter(entry => entry.isFile())
+    .map(entry => path.join(entry.parentPath, entry.name));
+};
+
+export const precacheManifest = (): Plugin => {
+  let config: ResolvedConfig;
+
+  return {
+    name: 'earlyspring:precache-manifest',
+    apply: 'build',
+
+    configResolved(resolvedConfig) {
+      config = resolvedConfig;
+    },
+
+    // After the bundle and the public files are written to the output
+    writeBundle: {
+      sequential: true,
+      order: 'post',
+      async handler() {
+        const outDir = path.resolve(config.root, config.build.outDir);
+        const workerPath = path.join(outDir, SERVICE_WORKER);
+
+        const files = await listFiles(outDir);
+        const manifest: PrecacheEntry[] = [];
+        for (const file of files) {
+          const relative = path.relative(outDir, file).split(path.sep).join('/');
+          if (EXCLUDED.some(pattern => pattern.test(relative))) continue;
+
+          const { size } = await stat(file);
+          if (size > MAX_PRECACHE_BYTES) {
+            config.logger.warn(`precache manifest: skipping ${relative} (${(size / 1024).toFixed(0)} kB)`);
+            continue;
+          }
+
+          const revision = createHash('sha256').update(await readFile(file)).digest('hex').slice(0, 12);
+          manifest.push({ url: config.base + relative, revision });
+        }
+        manifest.sort((a, b) => a.url.localeCompare(b.url));
+
+        const worker = await readFile(workerPath, 'utf8').catch(() => null);
+        if (worker === null || !worker.includes(MANIFEST_PLACEHOLDER)) {
+          return this.error(`${SERVICE_WORKER} in ${outDir} has no ${MANIFEST_PLACEHOLDER} to fill in`);
+        }
+        await writeFile(workerPath, worker.replace(MANIFEST_PLACEHOLDER, () => JSON.stringify(manifest)));
+
+        config.logger.info(`precache manifest: ${manifest.length} files written to ${SERVICE_WORKER}`);
+      }
+    }
+  };
+};
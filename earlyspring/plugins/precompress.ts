@@ -0,0 +1,69 @@
+// plugins/precompress.ts
+
+// Writes Brotli (.br) and gzip (.gz) copies of the built text files next
+// to the originals, compressed once at maximum level, so the server
+// (serve.js) only has to pick a file per request. Runs when the build
+// closes, after the precache manifest is written into the service worker.
+
+import { brotliCompress, constants, gzip } from 'node:zlib';
+import { readdir, readFile, writeFile } from 'node:fs/promises';
+import { promisify } from 'node:util';
+import path from 'node:path';
+import type { Plugin, ResolvedConfig } from 'vite';
+
+const brotli = promisify(brotliCompress);
+const gzipAsync = promisify(gzip);
+
+const COMPRESSIBLE = /\.(js|mjs|css|html|svg|json|webmanifest|txt)$/;
+// Below this, compression saves less than the extra request headers cost
+const MIN_SIZE = 1024;
+
+export const precompress = (): Plugin => {
+  let config: ResolvedConfig;
+
+  return {
+    name: 'earlyspring:precompress',
+    apply: 'build',
+
+    configResolved(resolvedConfig) {
+      config = resolvedConfig;
+    },
+
+    async closeBundle() {
+      const outDir = path.resolve(config.root, config.build.outDir);
+      const entries = await readdir(outDir, { withFileTypes: true, recursive: true });
+      const files = entries
+        .filter(entry => entry.isFile() && COMPRESSIBLE.test(entry.name))
+        .map(entry => path.join(entry.parentPath, entry.name));
+
+      let compressed = 0;
+      let saved = 0;
+      await Promise.all(files.map(async file => {
+        const content = await readFile(file);
+        if (content.length < MIN_SIZE) return;
+
+        const [br, gz] = await Promise.all([
+          brotli(content, {
+            params: {
+              [constants.BROTLI_PARAM_QUALITY]: constants.BROTLI_MAX_QUALITY,
+              [constants.BROTLI_PARAM_SIZE_HINT]: content.length
+            }
+          }),
+          gzipAsync(content, { level: constants.Z_BEST_COMPRESSION })
+        ]);
+
+        // Only keep copies that are actually smaller
+        if (br.length < content.length) {
+          await writeFile(`${file}.br`, br);
+          compressed++;
+          saved += content.length - br.length;
+        }
+        if (gz.length < content.length) {
+          await writeFile(`${file}.gz`, gz);
+        }
+      }));
+
+      config.logger.info(`precompressed ${compressed} files, brotli saves ${(saved / 1024).toFixed(1)} kB`);
+    }
+  };
+};
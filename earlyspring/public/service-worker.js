@@ -1,65 +1,171 @@
 // public/service-worker.js
 
-const CACHE_NAME = 'earlyspring-cache-v1';
-const urlsToCache = [
-  '/',
-  '/index.html',
-  '/assets/index.css',
-  '/assets/index.js',
-  '/sounds/baby_waltz.mp3',
-  '/sounds/birds.mp3',
-  '/sounds/digital.mp3',
-  '/sounds/gentle_chime.mp3',
-  '/sounds/rising_bell.mp3',
-  '/icons/alarm-icon.png',
-  '/icons/alarm-badge.png'
-];
-
-// Install event - cache assets
+// Hashed build assets, icons and index.html, with a revision per file.
+// Filled in by the build (plugins/precacheManifest.ts); empty under the dev
+// server. Alarm sounds are too large to download on every install and are
+// cached on first use instead (SOUND_CACHE).
+const PRECACHE_MANIFEST = self.__PRECACHE_MANIFEST || [];
+
+const PRECACHE = 'earlyspring-precache';
+const RUNTIME_CACHE = 'earlyspring-runtime';
+const WEATHER_CACHE = 'earlyspring-weather';
+// Kept apart from RUNTIME_CACHE and never trimmed: there are only a few
+// sounds, and an alarm has to be able to ring offline
+const SOUND_CACHE = 'earlyspring-sounds';
+const KNOWN_CACHES = [PRECACHE, RUNTIME_CACHE, WEATHER_CACHE, SOUND_CACHE];
+
+// Entries kept in the runtime caches before the oldest are dropped
+const MAX_RUNTIME_ENTRIES = 50;
+const MAX_WEATHER_ENTRIES = 10;
+
+// Precached files are stored under their revision, so a new build only
+// downloads the files that changed. Path -> cache key.
+const precacheKeys = new Map(
+  PRECACHE_MANIFEST.map(({ url, revision }) => [url, `${url}?__rev=${revision}`])
+);
+
+// Install event - precache the files of this build that aren't cached yet
 self.addEventListener('install', (event) => {
   event.waitUntil(
-    caches.open(CACHE_NAME)
-      .then((cache) => {
-        console.log('Opened cache');
-        return cache.addAll(urlsToCache);
-      })
+    caches.open(PRECACHE)
+      .then((cache) => Promise.all(
+        [...precacheKeys].map(async ([url, key]) => {
+          if (await cache.match(key)) return;
+          const response = await fetch(url, { cache: 'reload' });
+          if (!response.ok) {
+            throw new Error(`Could not precache ${url}: ${response.status}`);
+          }
+          await cache.put(key, response);
+        })
+      ))
+      .then(() => self.skipWaiting())
   );
 });
 
-// Activate event - clean up old caches
+// Activate event - drop caches and precache entries of older versions
 self.addEventListener('activate', (event) => {
-  const cacheWhitelist = [CACHE_NAME];
+  const currentKeys = new Set(
+    [...precacheKeys.values()].map((key) => new URL(key, self.location.origin).href)
+  );
+
   event.waitUntil(
-    caches.keys().then((cacheNames) => {
-      return Promise.all(
-        cacheNames.map((cacheName) => {
-          if (cacheWhitelist.indexOf(cacheName) === -1) {
-            return caches.delete(cacheName);
-          }
-          return null;
-        })
-      );
-    })
+    caches.keys()
+      .then((cacheNames) => Promise.all(
+        cacheNames
+          .filter((cacheName) => !KNOWN_CACHES.includes(cacheName))
+          .map((cacheName) => caches.delete(cacheName))
+      ))
+      .then(() => caches.open(PRECACHE))
+      .then(async (cache) => {
+        const requests = await cache.keys();
+        await Promise.all(
+          requests
+            .filter((request) => !currentKeys.has(request.url))
+            .map((request) => cache.delete(request))
+        );
+      })
+      .then(() => self.clients.claim())
   );
 });
 
-// Fetch event - serve from cache if available, but don't intercept API calls
-self.addEventListener('fetch', (event) => {
-    // Skip API requests
-    if (event.request.url.includes('/api/')) {
-      return;
+const trimCache = async (cacheName, maxEntries) => {
+  const cache = await caches.open(cacheName);
+  const requests = await cache.keys();
+  await Promise.all(
+    requests.slice(0, Math.max(0, requests.length - maxEntries)).map((request) => cache.delete(request))
+  );
+};
+
+const fromPrecache = async (url) => {
+  const key = precacheKeys.get(url);
+  return key ? caches.match(key, { cacheName: PRECACHE }) : undefined;
+};
+
+// Hashed assets and sounds never change under the same URL, so a cached
+// copy is served without asking the network. `maxEntries` trims the cache
+// after each addition; without it the cache is left to grow.
+const cacheFirst = async (event, cacheName, maxEntries) => {
+  const cached = await caches.match(event.request, { cacheName });
+  if (cached) return cached;
+
+  const response = await fetch(event.request);
+  // Partial (206) responses can't be cached
+  if (response.status === 200) {
+    const copy = response.clone();
+    event.waitUntil(
+      caches.open(cacheName)
+        .then((cache) => cache.put(event.request, copy))
+        .then(() => maxEntries && trimCache(cacheName, maxEntries))
+    );
+  }
+  return response;
+};
+
+// Weather answers from the last response right away and refreshes it in
+// the background. Requests made with cache: 'no-cache' (alarm warm-up)
+// want current weather, so they go to the network and only fall back to
+// the cache when offline.
+const staleWhileRevalidate = async (event) => {
+  const cache = await caches.open(WEATHER_CACHE);
+  const cached = await cache.match(event.request);
+
+  const network = fetch(event.request).then(async (response) => {
+    if (response.ok) {
+      await cache.put(event.request, response.clone());
+      await trimCache(WEATHER_CACHE, MAX_WEATHER_ENTRIES);
     }
+    return response;
+  });
+
+  if (event.request.cache === 'no-cache' || event.request.cache === 'reload' || !cached) {
+    return network.catch((error) => cached || Promise.reject(error));
+  }
+
+  event.waitUntil(network.catch(() => {}));
+  return cached;
+};
 
+// Fetch event - precached files first, then a strategy per kind of request
+self.addEventListener('fetch', (event) => {
+  const { request } = event;
+  if (request.method !== 'GET') return;
+
+  const url = new URL(request.url);
+
+  // Weather, possibly from the API's own origin
+  if (url.pathname.endsWith('/api/weather')) {
+    event.respondWith(staleWhileRevalidate(event));
+    return;
+  }
+
+  if (url.origin !== self.location.origin || url.pathname.startsWith('/api/')) {
+    return;
+  }
+
+  // The app shell: every navigation gets the precached index.html
+  if (request.mode === 'navigate') {
     event.respondWith(
-      caches.match(event.request)
-        .then((response) => {
-          if (response) {
-            return response;
-          }
-          return fetch(event.request);
-        })
+      fromPrecache('/index.html').then((response) => response || fetch(request))
     );
-  });
+    return;
+  }
+
+  if (precacheKeys.has(url.pathname)) {
+    event.respondWith(
+      fromPrecache(url.pathname).then((response) => response || fetch(request))
+    );
+    return;
+  }
+
+  if (url.pathname.startsWith('/sounds/')) {
+    event.respondWith(cacheFirst(event, SOUND_CACHE));
+    return;
+  }
+
+  if (url.pathname.startsWith('/assets/')) {
+    event.respondWith(cacheFirst(event, RUNTIME_CACHE, MAX_RUNTIME_ENTRIES));
+  }
+});
 
 // Push notification event
 self.addEventListener('push', (event) => {
@@ -70,8 +176,10 @@ self.addEventListener('push', (event) => {
     icon: '/icons/alarm-icon.png',
     badge: '/icons/alarm-badge.png',
     vibrate: [200, 100, 200, 100, 200, 100, 400],
+    // One notification per alarm, shared with the page's own notification
+    tag: data.alarmId ? `alarm-${data.alarmId}` : undefined,
+    renotify: true,
     actions: [
-      { action: 'snooze', title: 'Snooze' },
       { action: 'dismiss', title: 'Dismiss' }
     ],
     requireInteraction: true,
@@ -82,8 +190,15 @@ self.addEventListener('push', (event) => {
     }
   };
 
+  // A visible tab rings the alarm itself and shows its own notification
   event.waitUntil(
-    self.registration.showNotification(data.title || 'Alarm', options)
+    clients.matchAll({ type: 'window', includeUncontrolled: true })
+      .then((clientList) => {
+        if (clientList.some((client) => client.visibilityState === 'visible')) {
+          return null;
+        }
+        return self.registration.showNotification(data.title || 'Alarm', options);
+      })
   );
 });
 
@@ -91,23 +206,9 @@ self.addEventListener('push', (event) => {
 self.addEventListener('notificationclick', (event) => {
   event.notification.close();
 
-  const alarmData = event.notification.data;
-
-  if (event.action === 'snooze') {
-    // Snooze the alarm
-    event.waitUntil(
-      fetch('/api/alarms/snooze', {
-        method: 'POST',
-        headers: {
-          'Content-Type': 'application/json'
-        },
-        body: JSON.stringify({
-          alarmId: alarmData.alarmId,
-          userId: alarmData.userId
-        })
-      })
-    );
-  } else if (event.action === 'dismiss' || !event.action) {
+  // Snoozing happens in the app (it reschedules locally), so there is no
+  // snooze action here; dismissing or clicking opens the app
+  if (event.action === 'dismiss' || !event.action) {
     // Dismiss the alarm or default action (clicking notification)
     event.waitUntil(
       clients.matchAll({ type: 'window' })
@@ -0,0 +1,149 @@
+// serve.js
+// Serves the production build in dist/ with no dependencies beyond Node.
+// - Precompressed .br/.gz copies (see plugins/precompress.ts) are sent to
+//   clients that accept them, never compressed per request
+// - Hashed files under /assets are cached for a year as immutable;
+//   index.html and the service worker are revalidated on every load
+// - Paths without a file extension get index.html, for client-side routes
+import http from 'node:http';
+import { createReadStream } from 'node:fs';
+import { stat } from 'node:fs/promises';
+import path from 'node:path';
+import { fileURLToPath } from 'node:url';
+
+const PORT = process.env.PORT || 8080;
+const ROOT = path.resolve(process.env.STATIC_ROOT || path.join(path.dirname(fileURLToPath(import.meta.url)), 'dist'));
+
+const CONTENT_TYPES = {
+  '.html': 'text/html; charset=utf-8',
+  '.js': 'text/javascript; charset=utf-8',
+  '.mjs': 'text/javascript; charset=utf-8',
+  '.css': 'text/css; charset=utf-8',
+  '.json': 'application/json; charset=utf-8',
+  '.webmanifest': 'application/manifest+json',
+  '.svg': 'image/svg+xml',
+  '.png': 'image/png',
+  '.ico': 'image/x-icon',
+  '.txt': 'text/plain; charset=utf-8',
+  '.mp3': 'audio/mpeg',
+  '.woff2': 'font/woff2'
+};
+
+// Preferred first
+const ENCODINGS = [
+  { name: 'br', extension: '.br' },
+  { name: 'gzip', extension: '.gz' }
+];
+
+const IMMUTABLE = 'public, max-age=31536000, immutable';
+const REVALIDATE = 'no-cache';
+const SHORT = 'public, max-age=3600';
+
+const cacheControlFor = (urlPath) => {
+  if (urlPath.startsWith('/assets/')) return IMMUTABLE;
+  if (urlPath === '/index.html' || urlPath === '/service-worker.js') return REVALIDATE;
+  return SHORT;
+};
+
+const statFile = async (filePath) => {
+  try {
+    const stats = await stat(filePath);
+    return stats.isFile() ? stats : null;
+  } catch {
+    return null;
+  }
+};
+
+// Map a request path to a file under ROOT, or null if it escapes ROOT
+const resolvePath = (urlPath) => {
+  const filePath = path.join(ROOT, path.normalize(urlPath));
+  return filePath.startsWith(ROOT + path.sep) ? filePath : null;
+};
+
+// The file to send: the requested one or, for client-side routes, index.html
+const findFile = async (urlPath) => {
+  if (urlPath.endsWith('/')) urlPath += 'index.html';
+
+  const filePath = resolvePath(urlPath);
+  if (filePath) {
+    const stats = await statFile(filePath);
+    if (stats) return { urlPath, filePath, stats };
+  }
+
+  if (path.extname(urlPath)) return null;
+  const indexPath = path.join(ROOT, 'index.html');
+  const stats = await statFile(indexPath);
+  return stats ? { urlPath: '/index.html', filePath: indexPath, stats } : null;
+};
+
+// The best precompressed copy the client accepts
+const negotiate = async (filePath, acceptEncoding = '') => {
+  const accepted = acceptEncoding.split(',').map(value => value.trim().split(';')[0]);
+  for (const encoding of ENCODINGS) {
+    if (!accepted.includes(encoding.name)) continue;
+    const stats = await statFile(filePath + encoding.extension);
+    if (stats) return { encoding: encoding.name, filePath: filePath + encoding.extension, stats };
+  }
+  return null;
+};
+
+const server = http.createServer(async (req, res) => {
+  if (req.method !== 'GET' && req.method !== 'HEAD') {
+    res.writeHead(405, { Allow: 'GET, HEAD' });
+    res.end();
+    return;
+  }
+
+  let urlPath;
+  try {
+    urlPath = decodeURIComponent(new URL(req.url, 'http://localhost').pathname);
+  } catch {
+    res.writeHead(400);
+    res.end();
+    return;
+  }
+
+  try {
+    const file = await findFile(urlPath);
+    if (!file) {
+      res.writeHead(404, { 'Content-Type': 'text/plain; charset=utf-8' });
+      res.end('Not found');
+      return;
+    }
+
+    const compressed = await negotiate(file.filePath, req.headers['accept-encoding']);
+    const sent = compressed || file;
+    const etag = `"${sent.stats.size.toString(16)}-${Math.floor(sent.stats.mtimeMs).toString(16)}${compressed ? `-${compressed.encoding}` : ''}"`;
+
+    const headers = {
+      'Content-Type': CONTENT_TYPES[path.extname(file.filePath)] || 'application/octet-stream',
+      'Cache-Control': cacheControlFor(file.urlPath),
+      'ETag': etag,
+      'Last-Modified': file.stats.mtime.toUTCString(),
+      'Vary': 'Accept-Encoding'
+    };
+    if (compressed) headers['Content-Encoding'] = compressed.encoding;
+
+    if (req.headers['if-none-match'] === etag) {
+      res.writeHead(304, headers);
+      res.end();
+      return;
+    }
+
+    headers['Content-Length'] = sent.stats.size;
+    res.writeHead(200, headers);
+    if (req.method === 'HEAD') {
+      res.end();
+      return;
+    }
+    createReadStream(sent.filePath).pipe(res);
+  } catch (error) {
+    console.error('Error serving', urlPath, error);
+    if (!res.headersSent) res.writeHead(500);
+    res.end();
+  }
+});
+
+server.listen(PORT, () => {
+  console.log(`Serving ${ROOT} on port ${PORT}`);
+});
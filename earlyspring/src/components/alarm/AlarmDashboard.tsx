@@ -1,12 +1,33 @@
 // src/components/alarm/AlarmDashboard.tsx
 
-import React, { useState, useEffect, useRef } from 'react';
+import React, { useState, useEffect, useRef, useMemo } from 'react';
 import { useAuth } from '../../contexts/AuthContext';
-import { getUserAlarms, getNextAlarm, createAlarm, updateAlarm } from '../../services/alarmService';
+import {
+  getAlarmOverview,
+  getLocalAlarms,
+  syncAlarmChanges,
+  storeAlarmSnapshot,
+  storeAlarmEvent,
+  onOutboxChanges,
+  onAlarmConflict,
+  startOutboxSync,
+  createAlarm,
+  updateAlarm
+} from '../../services/alarmService';
 import { fetchWeatherData, isNighttime } from '../../services/weatherService';
+import { takeBootstrap } from '../../services/bootstrapService';
+import { AlarmSession } from '../../utils/alarmSession';
+import {
+  AlarmFeedEvent,
+  AlarmFeedSubscription,
+  applyAlarmEvent,
+  changesToEvents,
+  pickNextAlarm,
+  subscribeToAlarmFeed
+} from '../../services/alarmFeed';
 import { Alarm, WeatherData } from '../../types';
-import { getTimeUntilAlarm, scheduleAlarm, scheduleAllAlarms, registerAlarmDisplayCallback } from '../../utils/alarmScheduler';
-import { requestNotificationPermission } from '../../utils/notifications';
+import { getTimeUntilAlarm, scheduleAlarm, scheduleAllAlarms, cancelAlarm, closeAlarm, registerAlarmDisplayCallback, registerAlarmStopCallback } from '../../utils/alarmScheduler';
+import { requestNotificationPermission, subscribeToPush } from '../../utils/notifications';
 import AlarmDisplay from './AlarmDisplay';
 
 import AlarmList from './AlarmList';
@@ -16,7 +37,8 @@ import Plant from '../gamification/Plant';
 const AlarmDashboard: React.FC = () => {
   const { authState } = useAuth();
   const [alarms, setAlarms] = useState<Alarm[]>([]);
-  const [nextAlarm, setNextAlarm] = useState<Alarm | null>(null);
+  // Derived from the list, so every change to it moves the next alarm too
+  const nextAlarm = useMemo(() => pickNextAlarm(alarms), [alarms]);
   const [timeUntilNextAlarm, setTimeUntilNextAlarm] = useState<string>('');
   const [weatherData, setWeatherData] = useState<WeatherData | null>(null);
   const [currentTime, setCurrentTime] = useState<string>('');
@@ -28,7 +50,34 @@ const AlarmDashboard: React.FC = () => {
   const [isNight, setIsNight] = useState<boolean>(isNighttime());
   const initialLoad = useRef(true);
   const [activeAlarm, setActiveAlarm] = useState<Alarm | null>(null);
-  const [alarmAudio, setAlarmAudio] = useState<HTMLAudioElement | null>(null);
+  const [alarmSession, setAlarmSession] = useState<AlarmSession | null>(null);
+  const alarmFeed = useRef<AlarmFeedSubscription | null>(null);
+  const weatherDataRef = useRef<WeatherData | null>(null);
+  weatherDataRef.current = weatherData;
+  const alarmsRef = useRef<Alarm[]>([]);
+  alarmsRef.current = alarms;
+
+  // Patch the list (and the local store) with one alarm change and re-arm
+  // only that alarm
+  const applyAlarmChange = (event: AlarmFeedEvent) => {
+    storeAlarmEvent(event).catch(error => {
+      console.error('Error storing alarm change locally:', error);
+    });
+
+    setAlarms(prev => applyAlarmEvent(prev, event));
+
+    if (event.type === 'upsert' && event.alarm.isEnabled) {
+      scheduleAlarm(event.alarm, weatherDataRef.current || undefined);
+    } else {
+      cancelAlarm(event.type === 'delete' ? event.id : event.alarm._id!);
+    }
+  };
+
+  // Pull only the alarm changes since the last sync
+  const syncAlarms = async (userId: string) => {
+    const changes = await syncAlarmChanges(userId);
+    changesToEvents(alarmsRef.current, changes).forEach(applyAlarmChange);
+  };
 
   // Load user's alarms
   useEffect(() => {
@@ -39,24 +88,39 @@ const AlarmDashboard: React.FC = () => {
         setIsLoading(true);
         setError(null);
 
+        // Show the locally stored alarms right away; the network copy
+        // replaces them below
+        const userId = authState.user._id!;
+        const localAlarms = await getLocalAlarms(userId).catch(() => []);
+        if (localAlarms.length > 0) {
+          setAlarms(localAlarms);
+        }
+
+        // First load after sign-in: everything came with the bootstrap response
+        const bootstrap = takeBootstrap(userId);
+        if (bootstrap) {
+          await storeAlarmSnapshot(userId, bootstrap.alarms, bootstrap.cursor);
+          // The local list also holds writes the outbox hasn't sent yet
+          setAlarms(await getLocalAlarms(userId));
+          setWeatherData(bootstrap.weather || await fetchWeatherData(authState.user._id));
+          return;
+        }
+
         // Fetch alarms
         try {
-          const userAlarms = await getUserAlarms(authState.user._id!);
+          const { alarms: userAlarms } = await getAlarmOverview(authState.user._id!);
           setAlarms(userAlarms);
-
-          // Get the next alarm
-          const next = await getNextAlarm(authState.user._id!);
-          setNextAlarm(next);
         } catch (alarmError) {
           console.error('Error loading alarm data:', alarmError);
-          setAlarms([]);
-          setNextAlarm(null);
+          if (localAlarms.length === 0) {
+            setAlarms([]);
+          }
           setError('Could not load your alarms. Functionality will be limited.');
         }
 
         // Get weather data
         try {
-          const weather = await fetchWeatherData();
+          const weather = await fetchWeatherData(authState.user._id);
           setWeatherData(weather);
         } catch (weatherError) {
           console.error('Error loading weather data:', weatherError);
@@ -73,11 +137,45 @@ const AlarmDashboard: React.FC = () => {
     if (authState.isAuthenticated) {
       loadAlarms();
 
-      // Request notification permission
-      requestNotificationPermission();
+      // Request notification permission, then register for server pushes
+      const userId = authState.user?._id;
+      requestNotificationPermission().then(granted => {
+        if (granted && userId) {
+          subscribeToPush(userId);
+        }
+      });
     }
   }, [authState.isAuthenticated, authState.user]);
 
+  // Live alarm changes from this and other devices
+  useEffect(() => {
+    const userId = authState.user?._id;
+    if (!authState.isAuthenticated || !userId) return;
+
+    alarmFeed.current = subscribeToAlarmFeed(userId, applyAlarmChange, () => {
+      // Catch up on changes missed while disconnected
+      syncAlarms(userId).catch(error => {
+        console.error('Error resyncing alarms:', error);
+      });
+    });
+
+    // Queued offline writes: send them now and whenever we come back online
+    const stopOutboxSync = startOutboxSync();
+    const stopOutboxChanges = onOutboxChanges(events => events.forEach(applyAlarmChange));
+    // An edit the backend refused because the alarm changed on another device
+    const stopAlarmConflicts = onAlarmConflict(({ alarm }) => {
+      setError(`Your change to "${alarm.label || alarm.time}" was not saved because it was edited on another device. The alarm now shows that version.`);
+    });
+
+    return () => {
+      alarmFeed.current?.close();
+      alarmFeed.current = null;
+      stopOutboxSync();
+      stopOutboxChanges();
+      stopAlarmConflicts();
+    };
+  }, [authState.isAuthenticated, authState.user?._id]);
+
   // Update clock
   useEffect(() => {
     const updateClock = () => {
@@ -116,9 +214,12 @@ const AlarmDashboard: React.FC = () => {
 
   // Register the callback function to show the alarm display
   useEffect(() => {
-    registerAlarmDisplayCallback((alarm: Alarm, audio: HTMLAudioElement) => {
+    registerAlarmDisplayCallback((alarm: Alarm, session: AlarmSession) => {
       setActiveAlarm(alarm);
-      setAlarmAudio(audio);
+      setAlarmSession(session);
+    });
+    registerAlarmStopCallback((alarmId: string) => {
+      setActiveAlarm(current => (current && current._id === alarmId ? null : current));
     });
 
     // No cleanup needed as this is a global registration
@@ -180,12 +281,8 @@ const AlarmDashboard: React.FC = () => {
 
       // Fetch alarms without rescheduling them
       try {
-        const userAlarms = await getUserAlarms(authState.user._id!);
+        const { alarms: userAlarms } = await getAlarmOverview(authState.user._id!);
         setAlarms(userAlarms);
-
-        // Get the next alarm
-        const next = await getNextAlarm(authState.user._id!);
-        setNextAlarm(next);
       } catch (alarmError) {
         console.error('Error refreshing alarm data:', alarmError);
         setError('Could not refresh your alarms. Functionality may be limited.');
@@ -193,7 +290,7 @@ const AlarmDashboard: React.FC = () => {
 
       // Get weather data
       try {
-        const weather = await fetchWeatherData();
+        const weather = await fetchWeatherData(authState.user._id);
         setWeatherData(weather);
       } catch (weatherError) {
         console.error('Error refreshing weather data:', weatherError);
@@ -206,17 +303,15 @@ const AlarmDashboard: React.FC = () => {
     }
   };
 
-  const handleAlarmModification = async (modifiedAlarm: Alarm) => {
+  const handleAlarmModification = async () => {
     // Only refresh the alarms list, don't reschedule
     if (!authState.user?._id) return;
 
-    try {
-      const userAlarms = await getUserAlarms(authState.user._id!);
-      setAlarms(userAlarms);
+    // The change feed delivers this modification as a patch
+    if (alarmFeed.current?.isConnected()) return;
 
-      // Get the next alarm
-      const next = await getNextAlarm(authState.user._id!);
-      setNextAlarm(next);
+    try {
+      await syncAlarms(authState.user._id);
     } catch (error) {
       console.error('Error refreshing after alarm modification:', error);
     }
@@ -229,15 +324,11 @@ const AlarmDashboard: React.FC = () => {
 
     try {
       setIsLoading(true);
-      const userAlarms = await getUserAlarms(authState.user._id!);
+      const { alarms: userAlarms } = await getAlarmOverview(authState.user._id!);
       setAlarms(userAlarms);
 
       // Schedule all alarms only on full refresh
       scheduleAllAlarms(userAlarms, weatherData || undefined);
-
-      // Get the next alarm
-      const next = await getNextAlarm(authState.user._id!);
-      setNextAlarm(next);
     } catch (error) {
       console.error('Error refreshing all alarms:', error);
     } finally {
@@ -252,15 +343,11 @@ const AlarmDashboard: React.FC = () => {
   };
 
   const handleDismissAlarm = () => {
-    if (alarmAudio) {
-      try {
-        alarmAudio.pause();
-        alarmAudio.currentTime = 0;
-      } catch (error) {
-        console.warn("Error stopping alarm audio:", error);
-      }
+    if (activeAlarm?._id) {
+      closeAlarm(activeAlarm._id);
     }
-    setAlarmAudio(null);
+    alarmSession?.dispose();
+    setAlarmSession(null);
     setActiveAlarm(null);
   };
 
@@ -297,17 +384,10 @@ const AlarmDashboard: React.FC = () => {
       setShowAlarmForm(false);
       setEditingAlarm(null);
 
-      // Get fresh alarms data
-      const userAlarms = await getUserAlarms(authState.user._id!);
-      setAlarms(userAlarms);
-
-      // Update next alarm
-      const next = await getNextAlarm(authState.user._id!);
-      setNextAlarm(next);
-
-      // Schedule only the new/updated alarm
-      if (savedAlarm && savedAlarm.isEnabled) {
-        scheduleAlarm(savedAlarm, weatherData || undefined);
+      // Patch in the saved alarm and schedule only it; the change feed
+      // echo of this write is applied idempotently
+      if (savedAlarm) {
+        applyAlarmChange({ type: 'upsert', alarm: savedAlarm });
       }
     } catch (error) {
       console.error('Error saving alarm:', error);
@@ -618,7 +698,7 @@ const AlarmDashboard: React.FC = () => {
       {activeAlarm && (
         <AlarmDisplay
           alarm={activeAlarm}
-          audio={alarmAudio || undefined}
+          session={alarmSession || undefined}
           onDismiss={handleDismissAlarm}
           weatherData={weatherData}
         />
@@ -6,10 +6,11 @@ import { dismissAlarm, snoozeAlarm } from '../../utils/alarmScheduler';
 import { useAuth } from '../../contexts/AuthContext';
 import Plant from '../gamification/Plant';
 import { isNighttime } from '../../services/weatherService';
+import { AlarmSession } from '../../utils/alarmSession';
 
 interface AlarmDisplayProps {
   alarm: Alarm;
-  audio?: HTMLAudioElement;
+  session?: AlarmSession;
   onDismiss: () => void;
   weatherData: WeatherData | null;
 }
@@ -81,7 +82,7 @@ const WeatherIcon = ({ condition, isNight, size = 'md' }: { condition: string; i
 
 const AlarmDisplay: React.FC<AlarmDisplayProps> = ({
   alarm,
-  audio,
+  session,
   onDismiss,
   weatherData // Use the passed weather data
 }) => {
@@ -147,7 +148,7 @@ const AlarmDisplay: React.FC<AlarmDisplayProps> = ({
   // Handle dismiss action (for wakeup)
   const handleDismiss = (wokeUpOnTime: boolean) => {
     if (authState.user?._id) {
-      dismissAlarm(alarm, authState.user._id, wokeUpOnTime, audio);
+      dismissAlarm(alarm, authState.user._id, wokeUpOnTime, session);
     }
     onDismiss(); // Call the original onDismiss passed from Dashboard
   };
@@ -160,7 +161,7 @@ const AlarmDisplay: React.FC<AlarmDisplayProps> = ({
       // Mark as woken up on time
       if (authState.user?._id) {
         // Inform backend immediately but don't stop audio/dismiss UI yet
-         dismissAlarm(alarm, authState.user._id, true, audio, false); // Pass `false` for immediateDismiss
+         dismissAlarm(alarm, authState.user._id, true, session, false); // Pass `false` for immediateDismiss
       }
     }
     // If already in wakeup state, the feeling selection handles final dismissal
@@ -170,7 +171,7 @@ const AlarmDisplay: React.FC<AlarmDisplayProps> = ({
   const handleSnooze = () => {
     setDisplayState('initial'); // Go back to initial state after snoozing visually
     if (authState.user?._id) {
-      snoozeAlarm(alarm, authState.user._id, audio);
+      snoozeAlarm(alarm, authState.user._id, session);
       // Snooze implies not waking up on time for this instance,
       // but don't call full dismiss yet.
     }
@@ -8,7 +8,8 @@ import {
   onAuthStateChanged,
   getUserInfoFromFirebase
 } from '../services/authService';
-import { getUser, createUser, updateUser } from '../services/userService';
+import { updateUser, rememberUser, getRememberedUser } from '../services/userService';
+import { loadBootstrap } from '../services/bootstrapService';
 
 // Create auth context with default values
 const AuthContext = createContext<{
@@ -52,15 +53,11 @@ export const AuthProvider: React.FC<{ children: ReactNode }> = ({ children }) =>
           console.log("User info from Firebase:", userInfo);
 
           try {
-            // Check if user exists in DB
-            let user = await getUser(userInfo.googleId);
+            // Find or create the user in DB; the same response carries the
+            // dashboard's alarms and weather
+            const { user } = await loadBootstrap(userInfo);
             console.log("User from DB:", user);
-
-            if (!user) {
-              // Create user if doesn't exist
-              console.log("Creating new user in DB");
-              user = await createUser(userInfo);
-            }
+            rememberUser(user);
 
             // Set authenticated state
             setAuthState({
@@ -73,13 +70,17 @@ export const AuthProvider: React.FC<{ children: ReactNode }> = ({ children }) =>
           } catch (dbError) {
             console.error('Database error, but user is authenticated:', dbError);
 
-            // Still mark as authenticated even if DB fails - use Firebase user info
+            // Still mark as authenticated even if DB fails. The remembered
+            // user keeps the real _id, so locally stored alarms still match.
+            const rememberedUser = getRememberedUser();
             setAuthState({
               isAuthenticated: true,
-              user: {
-                ...userInfo,
-                _id: userInfo.googleId // Use googleId as _id fallback
-              },
+              user: rememberedUser?.googleId === userInfo.googleId
+                ? rememberedUser
+                : {
+                    ...userInfo,
+                    _id: userInfo.googleId // Use googleId as _id fallback
+                  },
               loading: false,
               error: 'Database connection error. Some features may be limited.'
             });
@@ -135,6 +136,7 @@ export const AuthProvider: React.FC<{ children: ReactNode }> = ({ children }) =>
       console.log("Logout initiated");
       setAuthState(prev => ({ ...prev, loading: true }));
       await firebaseLogout();
+      rememberUser(null);
       console.log("Logout successful");
       // Auth state will be updated by the onAuthStateChanged listener
       setAuthState({
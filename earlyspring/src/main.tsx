@@ -5,10 +5,38 @@ import ReactDOM from 'react-dom/client';
 import App from './App';
 import './index.css';
 import { registerServiceWorker } from './utils/notifications';
+import { getRememberedUser } from './services/userService';
+import { getLocalAlarms } from './services/localAlarmStore';
+import { scheduleAllAlarms } from './utils/alarmScheduler';
+import { unlockAudioOnGesture } from './services/audioEngine';
+import { getAlarmDiagnostics, runAlarmSoak, assertAlarmSoak, runAlarmSoakFromUrl } from './utils/alarmDiagnostics';
 
 // Register service worker for background notifications
 registerServiceWorker().catch(console.error);
 
+// Alarms ring through Web Audio, which needs one user gesture per page load
+unlockAudioOnGesture();
+
+// Alarm pipeline counters and a leak check, from the dev tools console or
+// automatically with ?alarmSoak=<cycles>
+if (import.meta.env.DEV) {
+  (window as any).earlyspring = {
+    stats: getAlarmDiagnostics,
+    soak: runAlarmSoak,
+    assertSoak: assertAlarmSoak
+  };
+  runAlarmSoakFromUrl();
+}
+
+// Arm the last user's alarms from the local store before auth and the
+// backend respond, so they ring even if neither ever does
+const rememberedUser = getRememberedUser();
+if (rememberedUser?._id) {
+  getLocalAlarms(rememberedUser._id)
+    .then(alarms => scheduleAllAlarms(alarms))
+    .catch(console.error);
+}
+
 ReactDOM.createRoot(document.getElementById('root')!).render(
   <React.StrictMode>
     <App />
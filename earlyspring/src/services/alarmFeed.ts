@@ -0,0 +1,110 @@
+// src/services/alarmFeed.ts
+
+import { Alarm } from '../types';
+import { AlarmChanges } from './alarmService';
+import { isLocalId } from './localAlarmStore';
+
+const API_BASE_URL = import.meta.env.VITE_API_BASE_URL || 'http://localhost:3000/api';
+
+// Changes pushed by the backend's alarm change stream
+export type AlarmFeedEvent =
+  | { type: 'upsert'; alarm: Alarm }
+  | { type: 'delete'; id: string };
+
+// Whether the backend's change stream is running
+type AlarmFeedStatus = { type: 'status'; live: boolean };
+
+export interface AlarmFeedSubscription {
+  close: () => void;
+  isConnected: () => boolean;
+}
+
+// Listen for a user's alarm changes. EventSource reconnects on its own, and
+// the backend reports whether its change stream is live. Changes made while
+// either was down are not replayed, so `onResync` runs whenever the feed
+// comes back after having been live.
+export const subscribeToAlarmFeed = (
+  userId: string,
+  onEvent: (event: AlarmFeedEvent) => void,
+  onResync: () => void
+): AlarmFeedSubscription => {
+  const source = new EventSource(`${API_BASE_URL}/alarms/stream?userId=${encodeURIComponent(userId)}`);
+  let live = false;
+  let wasLive = false;
+
+  source.addEventListener('alarm', (message) => {
+    let event: AlarmFeedEvent | AlarmFeedStatus;
+    try {
+      event = JSON.parse((message as MessageEvent).data);
+    } catch (error) {
+      console.error('Invalid alarm feed event:', error);
+      return;
+    }
+
+    if (event.type !== 'status') {
+      onEvent(event);
+      return;
+    }
+
+    if (event.live && !live && wasLive) {
+      onResync();
+    }
+    live = event.live;
+    wasLive = wasLive || live;
+  });
+
+  source.addEventListener('error', () => {
+    live = false;
+  });
+
+  return {
+    close: () => source.close(),
+    isConnected: () => live && source.readyState === EventSource.OPEN
+  };
+};
+
+// Apply one change to an alarm list, keeping it sorted by time like
+// getUserAlarms does. Unknown deletes leave the list unchanged.
+export const applyAlarmEvent = (alarms: Alarm[], event: AlarmFeedEvent): Alarm[] => {
+  if (event.type === 'delete') {
+    return alarms.some(alarm => alarm._id === event.id)
+      ? alarms.filter(alarm => alarm._id !== event.id)
+      : alarms;
+  }
+
+  const others = alarms.filter(alarm => alarm._id !== event.alarm._id);
+  return [...others, event.alarm].sort((a, b) => a.time.localeCompare(b.time));
+};
+
+// Turn a delta sync response into feed events. A reset response replaces
+// the list, so alarms missing from it become deletes (except ones created
+// offline that the backend hasn't seen yet).
+export const changesToEvents = (current: Alarm[], changes: AlarmChanges): AlarmFeedEvent[] => {
+  const events: AlarmFeedEvent[] = changes.deleted.map(id => ({ type: 'delete', id }));
+
+  if (changes.reset) {
+    const present = new Set(changes.alarms.map(alarm => alarm._id));
+    for (const alarm of current) {
+      if (alarm._id && !isLocalId(alarm._id) && !present.has(alarm._id)) {
+        events.push({ type: 'delete', id: alarm._id });
+      }
+    }
+  }
+
+  for (const alarm of changes.alarms) {
+    events.push({ type: 'upsert', alarm });
+  }
+  return events;
+};
+
+// The enabled alarm with the earliest upcoming nextFireAt
+export const pickNextAlarm = (alarms: Alarm[], now = Date.now()): Alarm | null => {
+  let next: Alarm | null = null;
+  for (const alarm of alarms) {
+    if (!alarm.isEnabled || alarm.nextFireAt == null || alarm.nextFireAt <= now) continue;
+    if (!next || alarm.nextFireAt < next.nextFireAt!) {
+      next = alarm;
+    }
+  }
+  return next;
+};
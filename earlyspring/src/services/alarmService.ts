@@ -2,22 +2,62 @@
 
 import { Alarm } from '../types';
 import {
+  ApiError,
+  makeRequest,
   findDocuments,
   findOneDocument,
   insertOneDocument,
   updateOneDocument,
   deleteOneDocument
 } from './mongoService';
+import {
+  OutboxEntry,
+  applyServerAlarms,
+  createLocalId,
+  deleteLocalAlarm,
+  enqueueWrite,
+  getLocalAlarm,
+  getLocalAlarms,
+  getSyncCursor,
+  isLocalId,
+  putLocalAlarm,
+  readOutbox,
+  removeOutboxEntries,
+  replaceLocalId,
+  setSyncCursor
+} from './localAlarmStore';
+import { AlarmFeedEvent } from './alarmFeed';
+import { getNextFireTime } from '../utils/alarmTime';
 
 const ALARMS_COLLECTION = 'alarms';
 
-// Get all alarms for a user
+// The backend fires alarms in the user's local zone, so store it with the alarm
+const getTimeZone = (): string | undefined => {
+  try {
+    return Intl.DateTimeFormat().resolvedOptions().timeZone;
+  } catch (error) {
+    return undefined;
+  }
+};
+
+export { getLocalAlarms };
+
+// Get all alarms for a user. The result is kept in the local store; when
+// the backend can't be reached the local copy is returned instead.
 export const getUserAlarms = async (userId: string): Promise<Alarm[]> => {
-  return await findDocuments<Alarm>(
-    ALARMS_COLLECTION,
-    { userId },
-    { sort: { time: 1 } } // Sort by time ascending
-  );
+  try {
+    const alarms = await findDocuments<Alarm>(
+      ALARMS_COLLECTION,
+      { userId },
+      { sort: { time: 1 } } // Sort by time ascending
+    );
+    await applyServerAlarms(userId, alarms, [], true);
+    return await getLocalAlarms(userId);
+  } catch (error) {
+    if (error instanceof ApiError && error.status < 500) throw error;
+    console.warn('Backend unavailable, using local alarms:', error);
+    return await getLocalAlarms(userId);
+  }
 };
 
 // Get a specific alarm
@@ -28,99 +68,343 @@ export const getAlarm = async (alarmId: string): Promise<Alarm | null> => {
   );
 };
 
-// Create a new alarm
+// Server editedAt of an alarm, as sent back for conflict checks. Unlike
+// updatedAt it only moves when a client edits the alarm, not when the
+// backend reschedules it.
+const editedAtOf = (alarm: Alarm | null): string | undefined => {
+  return alarm?.editedAt ? new Date(alarm.editedAt).toISOString() : undefined;
+};
+
+// Create a new alarm. It is stored locally under a temporary id first, so
+// it is armed and listed even while offline; the outbox creates it on the
+// backend and swaps in the real id.
 export const createAlarm = async (alarmData: Omit<Alarm, '_id'>): Promise<Alarm> => {
-  return await insertOneDocument<Alarm>(ALARMS_COLLECTION, alarmData);
+  const data = { ...alarmData, timeZone: getTimeZone() };
+  const localAlarm: Alarm = { ...data, _id: createLocalId() };
+
+  await enqueueWrite({ type: 'create', id: localAlarm._id!, data }, localAlarm);
+  await flushOutbox();
+
+  const savedId = syncedIds.get(localAlarm._id!) || localAlarm._id!;
+  return (await getLocalAlarm(savedId)) || localAlarm;
 };
 
-// Update an alarm
+// Update an alarm locally, then through the outbox
 export const updateAlarm = async (
   alarmId: string,
   alarmData: Partial<Alarm>
 ): Promise<Alarm | null> => {
-  return await updateOneDocument<Alarm>(
-    ALARMS_COLLECTION,
-    { _id: { $oid: alarmId } },
-    alarmData
+  const data = { ...alarmData, timeZone: getTimeZone() };
+  const current = await getLocalAlarm(alarmId);
+  const localAlarm = current ? { ...current, ...data } : undefined;
+
+  await enqueueWrite(
+    { type: 'update', id: alarmId, data, baseEditedAt: editedAtOf(current) },
+    localAlarm
   );
+  await flushOutbox();
+
+  return (await getLocalAlarm(alarmId)) || localAlarm || null;
 };
 
-// Delete an alarm
+// Delete an alarm locally, then through the outbox
 export const deleteAlarm = async (alarmId: string): Promise<boolean> => {
-  return await deleteOneDocument(
-    ALARMS_COLLECTION,
-    { _id: { $oid: alarmId } }
-  );
+  await enqueueWrite({ type: 'delete', id: alarmId }, null);
+  await flushOutbox();
+  return true;
 };
 
 // Toggle alarm enabled status
 export const toggleAlarmStatus = async (
   alarmId: string,
   enabled: boolean
-): Promise<Alarm | null> => {
-  return await updateOneDocument<Alarm>(
-    ALARMS_COLLECTION,
-    { _id: { $oid: alarmId } },
-    { isEnabled: enabled }
-  );
+): Promise<void> => {
+  await updateAlarm(alarmId, { isEnabled: enabled });
 };
 
-// Get the next scheduled alarm
-export const getNextAlarm = async (userId: string): Promise<Alarm | null> => {
-  const now = new Date();
-  const dayNames: { [key: number]: string } = {
-    0: 'Sun',
-    1: 'Mon',
-    2: 'Tue',
-    3: 'Wed',
-    4: 'Thu',
-    5: 'Fri',
-    6: 'Sat'
+// ============ OUTBOX ============
+
+// Local changes made by the outbox (id swaps, conflict resolutions) are
+// reported to listeners as feed events so the UI can patch itself
+type OutboxListener = (events: AlarmFeedEvent[]) => void;
+const outboxListeners = new Set<OutboxListener>();
+
+export const onOutboxChanges = (listener: OutboxListener): (() => void) => {
+  outboxListeners.add(listener);
+  return () => {
+    outboxListeners.delete(listener);
   };
+};
 
-  const today = dayNames[now.getDay()];
-  const currentTime = `${now.getHours().toString().padStart(2, '0')}:${now.getMinutes().toString().padStart(2, '0')}`;
+const notifyOutboxListeners = (events: AlarmFeedEvent[]) => {
+  outboxListeners.forEach(listener => listener(events));
+};
 
-  // Get all enabled alarms
-  const alarms = await findDocuments<Alarm>(
-    ALARMS_COLLECTION,
-    {
-      userId,
-      isEnabled: true
+// Edits the outbox had to discard because the alarm was edited elsewhere
+// first, so the UI can tell the user their change did not stick
+export interface AlarmConflict {
+  alarm: Alarm;
+  discarded: Partial<Alarm>;
+}
+
+type ConflictListener = (conflict: AlarmConflict) => void;
+const conflictListeners = new Set<ConflictListener>();
+
+export const onAlarmConflict = (listener: ConflictListener): (() => void) => {
+  conflictListeners.add(listener);
+  return () => {
+    conflictListeners.delete(listener);
+  };
+};
+
+// Temporary id -> backend id, for callers waiting on their own create
+const syncedIds = new Map<string, string>();
+
+const OUTBOX_RETRY_MIN_MS = 5000;
+const OUTBOX_RETRY_MAX_MS = 5 * 60 * 1000;
+let outboxRetryDelay = OUTBOX_RETRY_MIN_MS;
+let outboxRetryTimer: ReturnType<typeof setTimeout> | null = null;
+let flushing: Promise<void> | null = null;
+
+const scheduleOutboxRetry = () => {
+  if (outboxRetryTimer) return;
+  outboxRetryTimer = setTimeout(() => {
+    outboxRetryTimer = null;
+    flushOutbox();
+  }, outboxRetryDelay);
+  outboxRetryDelay = Math.min(outboxRetryDelay * 2, OUTBOX_RETRY_MAX_MS);
+};
+
+// Send one queued write. Returns false if it should be retried later.
+const sendOutboxEntry = async (
+  entry: OutboxEntry,
+  baseEditedAt: Map<string, string | undefined>
+): Promise<boolean> => {
+  try {
+    if (entry.type === 'create') {
+      const saved = await insertOneDocument<Alarm>(ALARMS_COLLECTION, entry.data);
+      await replaceLocalId(entry.id, saved);
+      syncedIds.set(entry.id, saved._id!);
+      baseEditedAt.set(saved._id!, editedAtOf(saved));
+      notifyOutboxListeners([
+        { type: 'delete', id: entry.id },
+        { type: 'upsert', alarm: saved }
+      ]);
+      return true;
+    }
+
+    if (entry.type === 'delete') {
+      await deleteOneDocument(ALARMS_COLLECTION, { _id: { $oid: entry.id } });
+      return true;
+    }
+
+    const saved = await updateOneDocument<Alarm>(
+      ALARMS_COLLECTION,
+      { _id: { $oid: entry.id } },
+      entry.data,
+      {
+        ifEditedAt: baseEditedAt.has(entry.id) ? baseEditedAt.get(entry.id) : entry.baseEditedAt
+      }
+    );
+    if (saved) {
+      await applyServerAlarms(saved.userId, [saved], [], false);
+      baseEditedAt.set(entry.id, editedAtOf(saved));
+    }
+    return true;
+  } catch (error) {
+    if (!(error instanceof ApiError) || error.status >= 500) {
+      return false;
+    }
+
+    // Someone else edited the alarm first: the backend copy wins, and the
+    // user is told which change was dropped
+    if (error.status === 409 && entry.type === 'update') {
+      const current = await findOneDocument<Alarm>(ALARMS_COLLECTION, { _id: { $oid: entry.id } });
+      if (current) {
+        await applyServerAlarms(current.userId, [current], [], false);
+        baseEditedAt.set(entry.id, editedAtOf(current));
+        notifyOutboxListeners([{ type: 'upsert', alarm: current }]);
+        conflictListeners.forEach(listener => listener({ alarm: current, discarded: entry.data }));
+      }
+      return true;
     }
-  );
 
-  if (alarms.length === 0) {
-    return null;
+    // Other client errors won't succeed on retry
+    console.error('Dropping rejected alarm write:', entry, error);
+    return true;
   }
+};
 
-  // Filter alarms for today and future times
-  const todayAlarms = alarms.filter(alarm =>
-    alarm.days.includes(today as any) && alarm.time > currentTime
-  );
+const runOutbox = async () => {
+  const entries = await readOutbox();
+  const baseEditedAt = new Map<string, string | undefined>();
+  // Writes to an alarm whose create is still pending must wait for it
+  const blocked = new Set<string>();
+  let failed = false;
 
-  if (todayAlarms.length > 0) {
-    // Sort by time and return the first one
-    return todayAlarms.sort((a, b) => a.time.localeCompare(b.time))[0];
+  for (const entry of entries) {
+    if (blocked.has(entry.id)) continue;
+
+    // Entries read before their alarm's create went through still carry
+    // the temporary id (the stored copies were rewritten by replaceLocalId)
+    if (entry.type !== 'create' && isLocalId(entry.id)) {
+      const syncedId = syncedIds.get(entry.id);
+      if (!syncedId) {
+        blocked.add(entry.id);
+        continue;
+      }
+      entry.id = syncedId;
+    }
+
+    if (await sendOutboxEntry(entry, baseEditedAt)) {
+      await removeOutboxEntries([entry.seq!]);
+    } else {
+      failed = true;
+      blocked.add(entry.id);
+    }
   }
 
-  // If no alarms today, find the next day with an alarm
-  let dayIndex = (now.getDay() + 1) % 7;
-  let daysChecked = 0;
+  if (failed) {
+    scheduleOutboxRetry();
+  } else {
+    outboxRetryDelay = OUTBOX_RETRY_MIN_MS;
+  }
+};
+
+// Send pending writes in order. Network failures leave them queued and
+// retry with backoff; a write to an alarm is never sent before an earlier
+// failed write to the same alarm. Writes queued during a flush trigger one
+// more pass before the returned promise settles.
+let flushAgain = false;
+
+export const flushOutbox = (): Promise<void> => {
+  if (flushing) {
+    flushAgain = true;
+    return flushing;
+  }
+
+  flushing = (async () => {
+    do {
+      flushAgain = false;
+      try {
+        await runOutbox();
+      } catch (error) {
+        console.error('Error flushing alarm outbox:', error);
+        scheduleOutboxRetry();
+      }
+    } while (flushAgain);
+  })().finally(() => {
+    flushing = null;
+  });
+  return flushing;
+};
+
+// Retry queued writes whenever the browser comes back online
+export const startOutboxSync = (): (() => void) => {
+  const handleOnline = () => {
+    outboxRetryDelay = OUTBOX_RETRY_MIN_MS;
+    flushOutbox();
+  };
 
-  while (daysChecked < 7) {
-    const nextDay = dayNames[dayIndex];
-    const nextDayAlarms = alarms.filter(alarm => alarm.days.includes(nextDay as any));
+  window.addEventListener('online', handleOnline);
+  flushOutbox();
+
+  return () => window.removeEventListener('online', handleOnline);
+};
 
-    if (nextDayAlarms.length > 0) {
-      // Sort by time and return the first one
-      return nextDayAlarms.sort((a, b) => a.time.localeCompare(b.time))[0];
+// Get the next scheduled alarm
+// nextFireAt is kept up to date by the backend, so this is a single indexed
+// range query on { userId, isEnabled, nextFireAt } instead of a scan in JS.
+// Offline, the next alarm is worked out from the local copy.
+export const getNextAlarm = async (userId: string): Promise<Alarm | null> => {
+  try {
+    const alarms = await findDocuments<Alarm>(
+      ALARMS_COLLECTION,
+      {
+        userId,
+        isEnabled: true,
+        nextFireAt: { $gt: Date.now() }
+      },
+      {
+        sort: { nextFireAt: 1 },
+        limit: 1
+      }
+    );
+
+    return alarms[0] || null;
+  } catch (error) {
+    if (error instanceof ApiError && error.status < 500) throw error;
+    return getLocalNextAlarm(userId);
+  }
+};
+
+const getLocalNextAlarm = async (userId: string): Promise<Alarm | null> => {
+  let next: Alarm | null = null;
+  let nextTime = Infinity;
+
+  for (const alarm of await getLocalAlarms(userId)) {
+    if (!alarm.isEnabled) continue;
+    const fireTime = getNextFireTime(alarm)?.getTime() ?? Infinity;
+    if (fireTime < nextTime) {
+      next = alarm;
+      nextTime = fireTime;
     }
+  }
+  return next;
+};
+
+// Get a user's alarms together with their next alarm. Both queries are
+// issued in the same tick, so they travel in one batched request.
+export const getAlarmOverview = async (
+  userId: string
+): Promise<{ alarms: Alarm[]; nextAlarm: Alarm | null }> => {
+  const [alarms, nextAlarm] = await Promise.all([
+    getUserAlarms(userId),
+    getNextAlarm(userId)
+  ]);
 
-    dayIndex = (dayIndex + 1) % 7;
-    daysChecked++;
+  return { alarms, nextAlarm };
+};
+
+// Alarms changed since a sync cursor
+export interface AlarmChanges {
+  // True when `alarms` is the full list (no cursor, or it was too old)
+  reset: boolean;
+  alarms: Alarm[];
+  deleted: string[];
+  cursor: string;
+}
+
+// Fetch only the alarms changed or deleted since `cursor`; without a cursor
+// the full list comes back
+export const getAlarmChanges = async (userId: string, cursor?: string | null): Promise<AlarmChanges> => {
+  const params = new URLSearchParams({ userId });
+  if (cursor) {
+    params.set('since', cursor);
   }
 
-  // No alarms found for the next 7 days
-  return null;
+  return await makeRequest(`alarms/changes?${params}`, 'GET');
+};
+
+// Pull changes since the stored cursor into the local store
+export const syncAlarmChanges = async (userId: string): Promise<AlarmChanges> => {
+  const changes = await getAlarmChanges(userId, await getSyncCursor(userId));
+  await applyServerAlarms(userId, changes.alarms, changes.deleted, changes.reset);
+  await setSyncCursor(userId, changes.cursor);
+  return changes;
+};
+
+// Store a full alarm list fetched elsewhere (e.g. the bootstrap response)
+export const storeAlarmSnapshot = async (userId: string, alarms: Alarm[], cursor: string): Promise<void> => {
+  await applyServerAlarms(userId, alarms, [], true);
+  await setSyncCursor(userId, cursor);
+};
+
+// Keep the local store in step with a live feed event
+export const storeAlarmEvent = async (event: AlarmFeedEvent): Promise<void> => {
+  if (event.type === 'delete') {
+    await deleteLocalAlarm(event.id);
+  } else {
+    await putLocalAlarm(event.alarm);
+  }
 };
@@ -0,0 +1,305 @@
+// src/services/audioEngine.ts
+
+// The app's single Web Audio graph. One long-lived AudioContext mixes two
+// buses into a master gain:
+//
+//   alarm sounds ──> alarm bus ──┐
+//   speech ────────> speech bus ─┴──> master ──> speakers
+//
+// Alarm sounds are decoded (or synthesized, see soundSynth) once into
+// AudioBuffers and cached per sound id.
+// Volume changes are scheduled as gain automation on the audio clock, so
+// ramps are sample-accurate and need no timers, and speech ducks the alarm
+// bus while it plays.
+
+import { BEEP_SOUND, isSynthSound, renderSynthSound } from './soundSynth';
+
+export const DEFAULT_SOUND = 'baby_waltz';
+
+// A gradual alarm starts at this level and reaches full volume after
+// RAMP_SECONDS
+const RAMP_START_GAIN = 0.1;
+const RAMP_SECONDS = 27;
+
+// Alarm bus level while speech plays, and how fast it moves there and back
+const DUCK_GAIN = 0.2;
+const DUCK_SECONDS = 0.25;
+
+// Fade applied when an alarm is stopped, to avoid a click
+const STOP_FADE_SECONDS = 0.05;
+
+// When no sound can be played at all, the alarm rings with this vibration
+// (or a spoken "Alarm" without vibration support), repeated until stopped
+const FALLBACK_VIBRATION = [600, 200, 600];
+const FALLBACK_CUE_INTERVAL_MS = 2500;
+
+// Controls one ringing alarm sound
+export interface AlarmPlayback {
+  stop: () => void;
+}
+
+interface AudioGraph {
+  context: AudioContext;
+  alarmBus: GainNode;
+  speechBus: GainNode;
+}
+
+let graph: AudioGraph | null = null;
+const soundBuffers = new Map<string, Promise<AudioBuffer>>();
+let activeSpeech = 0;
+
+// Sources currently playing, so speech can be cut off and leaks show up
+let alarmSources = 0;
+const speechSources = new Set<AudioBufferSourceNode>();
+// Streamed speech elements and the cancel each owner registered
+const speechElements = new Map<HTMLAudioElement, () => void>();
+
+const getGraph = (): AudioGraph => {
+  if (!graph) {
+    const context = new (window.AudioContext || (window as any).webkitAudioContext)();
+    const master = context.createGain();
+    const alarmBus = context.createGain();
+    const speechBus = context.createGain();
+
+    alarmBus.connect(master);
+    speechBus.connect(master);
+    master.connect(context.destination);
+    graph = { context, alarmBus, speechBus };
+  }
+  return graph;
+};
+
+export const getAudioContext = (): AudioContext => getGraph().context;
+
+// Browsers keep a context suspended until the page gets a user gesture.
+// Resume it on the first one so alarms can sound later without one.
+export const unlockAudioOnGesture = (): void => {
+  const unlock = () => {
+    getAudioContext().resume()
+      .then(() => {
+        ['pointerdown', 'keydown', 'touchend'].forEach(type => window.removeEventListener(type, unlock));
+      })
+      .catch(error => console.warn('Could not resume audio:', error));
+  };
+  ['pointerdown', 'keydown', 'touchend'].forEach(type => window.addEventListener(type, unlock));
+};
+
+const resume = (): void => {
+  const { context } = getGraph();
+  if (context.state !== 'running') {
+    context.resume().catch(error => console.warn('Could not resume audio:', error));
+  }
+};
+
+// Sounds are served from public/sounds, i.e. /sounds at the site root
+export const getSoundUrl = (sound: string): string => `/sounds/${sound}.mp3`;
+
+export const decodeAudio = (audioData: ArrayBuffer): Promise<AudioBuffer> => {
+  return getAudioContext().decodeAudioData(audioData);
+};
+
+// Decode or synthesize a sound once; later calls share the cached buffer
+export const loadSound = (sound: string): Promise<AudioBuffer> => {
+  let buffer = soundBuffers.get(sound);
+  if (!buffer && isSynthSound(sound)) {
+    buffer = Promise.resolve(renderSynthSound(getAudioContext(), sound));
+    soundBuffers.set(sound, buffer);
+  }
+  if (!buffer) {
+    buffer = fetch(getSoundUrl(sound))
+      .then(response => {
+        if (!response.ok) {
+          throw new Error(`Could not load sound ${sound}: ${response.status}`);
+        }
+        return response.arrayBuffer();
+      })
+      .then(decodeAudio);
+    // Let a failed load be retried
+    buffer.catch(() => soundBuffers.delete(sound));
+    soundBuffers.set(sound, buffer);
+  }
+  return buffer;
+};
+
+// The sound itself, else the default sound, else a plain beep
+const loadSoundWithFallback = async (sound: string): Promise<AudioBuffer> => {
+  try {
+    return await loadSound(sound);
+  } catch (error) {
+    console.warn(`${(error as Error).message}, trying fallback`);
+  }
+
+  if (sound !== DEFAULT_SOUND) {
+    try {
+      return await loadSound(DEFAULT_SOUND);
+    } catch (error) {
+      console.warn(`${(error as Error).message}, using system beep`);
+    }
+  }
+  return loadSound(BEEP_SOUND);
+};
+
+// Loop an alarm sound on the alarm bus. A sound that is already decoded
+// starts in the same tick; otherwise it starts once decoded.
+export const playAlarmSound = (
+  sound: string = DEFAULT_SOUND,
+  options: { raiseGradually?: boolean } = {}
+): AlarmPlayback => {
+  const { context, alarmBus } = getGraph();
+  resume();
+
+  const gain = context.createGain();
+  gain.connect(alarmBus);
+  let source: AudioBufferSourceNode | null = null;
+  let stopped = false;
+  let cueTimer: ReturnType<typeof setInterval> | null = null;
+
+  const start = (buffer: AudioBuffer) => {
+    if (stopped) return;
+
+    const now = context.currentTime;
+    source = context.createBufferSource();
+    source.buffer = buffer;
+    source.loop = true;
+    source.connect(gain);
+    source.onended = () => {
+      gain.disconnect();
+      alarmSources--;
+    };
+    alarmSources++;
+
+    if (options.raiseGradually) {
+      gain.gain.setValueAtTime(RAMP_START_GAIN, now);
+      gain.gain.linearRampToValueAtTime(1, now + RAMP_SECONDS);
+    } else {
+      gain.gain.setValueAtTime(1, now);
+    }
+    source.start(now);
+  };
+
+  // Not even the beep could be decoded: ring without the audio graph
+  const startFallbackCue = () => {
+    const canVibrate = 'vibrate' in navigator;
+    const cue = () => {
+      if (canVibrate) {
+        navigator.vibrate(FALLBACK_VIBRATION);
+      } else if ('speechSynthesis' in window) {
+        window.speechSynthesis.speak(new SpeechSynthesisUtterance('Alarm'));
+      }
+    };
+    cue();
+    cueTimer = setInterval(cue, FALLBACK_CUE_INTERVAL_MS);
+  };
+
+  loadSoundWithFallback(sound)
+    .then(start)
+    .catch(error => {
+      console.error('Could not play any alarm sound, falling back to a vibration cue:', error);
+      gain.disconnect();
+      if (!stopped) {
+        startFallbackCue();
+      }
+    });
+
+  return {
+    stop: () => {
+      if (stopped) return;
+      stopped = true;
+      if (cueTimer) {
+        clearInterval(cueTimer);
+        cueTimer = null;
+        if ('vibrate' in navigator) navigator.vibrate(0);
+      }
+      if (!source) {
+        gain.disconnect();
+        return;
+      }
+
+      const now = context.currentTime;
+      gain.gain.cancelScheduledValues(now);
+      gain.gain.setValueAtTime(gain.gain.value, now);
+      gain.gain.linearRampToValueAtTime(0, now + STOP_FADE_SECONDS);
+      source.stop(now + STOP_FADE_SECONDS);
+    }
+  };
+};
+
+// Lower the alarm bus while speech plays. Returns the release; the bus
+// comes back up once every overlapping speech has released.
+export const duckAlarms = (): (() => void) => {
+  const { context, alarmBus } = getGraph();
+
+  const rampTo = (value: number) => {
+    const now = context.currentTime;
+    alarmBus.gain.cancelScheduledValues(now);
+    alarmBus.gain.setValueAtTime(alarmBus.gain.value, now);
+    alarmBus.gain.linearRampToValueAtTime(value, now + DUCK_SECONDS);
+  };
+
+  if (activeSpeech++ === 0) {
+    rampTo(DUCK_GAIN);
+  }
+
+  let released = false;
+  return () => {
+    if (released) return;
+    released = true;
+    if (--activeSpeech === 0) {
+      rampTo(1);
+    }
+  };
+};
+
+// Play a decoded speech clip on the speech bus
+export const playSpeech = (buffer: AudioBuffer): Promise<void> => {
+  const { context, speechBus } = getGraph();
+  resume();
+
+  return new Promise(resolve => {
+    const source = context.createBufferSource();
+    source.buffer = buffer;
+    source.connect(speechBus);
+    source.onended = () => {
+      source.disconnect();
+      speechSources.delete(source);
+      resolve();
+    };
+    speechSources.add(source);
+    source.start();
+  });
+};
+
+// Route a media element (streamed speech) through the speech bus.
+// `onCancel` is called after stopSpeech pauses the element, which then
+// never ends on its own, so its owner can release it. Returns the
+// disconnect.
+export const routeSpeechElement = (audio: HTMLAudioElement, onCancel: () => void): (() => void) => {
+  const { context, speechBus } = getGraph();
+  resume();
+
+  const source = context.createMediaElementSource(audio);
+  source.connect(speechBus);
+  speechElements.set(audio, onCancel);
+  return () => {
+    source.disconnect();
+    speechElements.delete(audio);
+  };
+};
+
+// Cut off all speech that is playing
+export const stopSpeech = (): void => {
+  speechSources.forEach(source => source.stop());
+  [...speechElements].forEach(([audio, onCancel]) => {
+    audio.pause();
+    onCancel();
+  });
+};
+
+// Live sources, for leak checks
+export const getAudioEngineStats = () => {
+  return {
+    alarmSounds: alarmSources,
+    speechClips: speechSources.size,
+    speechStreams: speechElements.size
+  };
+};
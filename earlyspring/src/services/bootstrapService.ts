@@ -0,0 +1,46 @@
+// src/services/bootstrapService.ts
+
+import { Alarm, User, WeatherData } from '../types';
+import { makeRequest } from './mongoService';
+import { getCachedLocation, toWeatherData } from './weatherService';
+
+export interface BootstrapData {
+  user: User;
+  alarms: Alarm[];
+  nextAlarm: Alarm | null;
+  weather: WeatherData | null;
+  // Delta sync cursor for `alarms`
+  cursor: string;
+}
+
+// The latest bootstrap, kept until the dashboard picks it up
+let pendingBootstrap: BootstrapData | null = null;
+
+// Upsert the signed-in user and fetch their alarms, next alarm and weather
+// in a single request. Weather uses the last known location so startup
+// never waits on the geolocation prompt.
+export const loadBootstrap = async (userInfo: User): Promise<BootstrapData> => {
+  const { googleId, email, name, picture } = userInfo;
+
+  const result = await makeRequest('bootstrap', 'POST', {
+    user: { googleId, email, name, picture },
+    location: getCachedLocation()
+  });
+
+  pendingBootstrap = {
+    user: result.user,
+    alarms: result.alarms,
+    nextAlarm: result.nextAlarm,
+    cursor: result.cursor,
+    weather: result.weather ? toWeatherData(result.weather.data) : null
+  };
+  return pendingBootstrap;
+};
+
+// Hand the bootstrap data to the dashboard once. Later loads fetch fresh data.
+export const takeBootstrap = (userId: string): BootstrapData | null => {
+  const bootstrap = pendingBootstrap;
+  pendingBootstrap = null;
+
+  return bootstrap && bootstrap.user._id === userId ? bootstrap : null;
+};
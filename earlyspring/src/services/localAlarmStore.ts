@@ -0,0 +1,192 @@
+// src/services/localAlarmStore.ts
+
+// IndexedDB copy of the user's alarms plus a durable outbox of writes that
+// haven't reached the backend yet. Reads never wait on the network, so
+// alarms can be armed on cold start and keep working offline.
+
+import { Alarm } from '../types';
+
+const DB_NAME = 'earlyspring';
+const DB_VERSION = 1;
+const ALARMS_STORE = 'alarms';
+const OUTBOX_STORE = 'outbox';
+const META_STORE = 'meta';
+
+// A write waiting to be sent. `baseEditedAt` is the server editedAt the
+// change was made against, used to detect conflicting edits.
+export type OutboxEntry =
+  | { seq?: number; type: 'create'; id: string; data: Omit<Alarm, '_id'> }
+  | { seq?: number; type: 'update'; id: string; data: Partial<Alarm>; baseEditedAt?: string }
+  | { seq?: number; type: 'delete'; id: string };
+
+// Ids given to alarms created while offline, until the backend assigns one
+export const LOCAL_ID_PREFIX = 'local-';
+
+export const createLocalId = (): string => {
+  return `${LOCAL_ID_PREFIX}${crypto.randomUUID()}`;
+};
+
+export const isLocalId = (id: string): boolean => id.startsWith(LOCAL_ID_PREFIX);
+
+let dbPromise: Promise<IDBDatabase> | null = null;
+
+const openDatabase = (): Promise<IDBDatabase> => {
+  if (!dbPromise) {
+    dbPromise = new Promise((resolve, reject) => {
+      const request = indexedDB.open(DB_NAME, DB_VERSION);
+
+      request.onupgradeneeded = () => {
+        const db = request.result;
+        const alarms = db.createObjectStore(ALARMS_STORE, { keyPath: '_id' });
+        alarms.createIndex('userId', 'userId');
+        db.createObjectStore(OUTBOX_STORE, { keyPath: 'seq', autoIncrement: true });
+        db.createObjectStore(META_STORE);
+      };
+
+      request.onsuccess = () => resolve(request.result);
+      request.onerror = () => {
+        dbPromise = null;
+        reject(request.error);
+      };
+    });
+  }
+  return dbPromise;
+};
+
+// Run `work` in one transaction and resolve once it commits
+const withStores = async <T>(
+  storeNames: string[],
+  mode: IDBTransactionMode,
+  work: (tx: IDBTransaction) => Promise<T> | T
+): Promise<T> => {
+  const db = await openDatabase();
+  const tx = db.transaction(storeNames, mode);
+  const done = new Promise<void>((resolve, reject) => {
+    tx.oncomplete = () => resolve();
+    tx.onerror = () => reject(tx.error);
+    tx.onabort = () => reject(tx.error);
+  });
+
+  const result = await work(tx);
+  await done;
+  return result;
+};
+
+const requestResult = <T>(request: IDBRequest<T>): Promise<T> => {
+  return new Promise((resolve, reject) => {
+    request.onsuccess = () => resolve(request.result);
+    request.onerror = () => reject(request.error);
+  });
+};
+
+// All locally known alarms of a user, sorted by time
+export const getLocalAlarms = async (userId: string): Promise<Alarm[]> => {
+  const alarms = await withStores([ALARMS_STORE], 'readonly', tx =>
+    requestResult<Alarm[]>(tx.objectStore(ALARMS_STORE).index('userId').getAll(userId))
+  );
+  return alarms.sort((a, b) => a.time.localeCompare(b.time));
+};
+
+export const getLocalAlarm = async (id: string): Promise<Alarm | null> => {
+  const alarm = await withStores([ALARMS_STORE], 'readonly', tx =>
+    requestResult<Alarm | undefined>(tx.objectStore(ALARMS_STORE).get(id))
+  );
+  return alarm || null;
+};
+
+export const putLocalAlarm = async (alarm: Alarm): Promise<void> => {
+  await withStores([ALARMS_STORE], 'readwrite', tx => {
+    tx.objectStore(ALARMS_STORE).put(alarm);
+  });
+};
+
+export const deleteLocalAlarm = async (id: string): Promise<void> => {
+  await withStores([ALARMS_STORE], 'readwrite', tx => {
+    tx.objectStore(ALARMS_STORE).delete(id);
+  });
+};
+
+// Apply server state: upsert `alarms`, drop `deleted`. With `replace`, the
+// user's other server-side alarms are dropped too; alarms that still only
+// exist locally are kept for the outbox to send.
+export const applyServerAlarms = async (
+  userId: string,
+  alarms: Alarm[],
+  deleted: string[],
+  replace: boolean
+): Promise<void> => {
+  const existing = replace ? await getLocalAlarms(userId) : [];
+  const present = new Set(alarms.map(alarm => alarm._id));
+
+  await withStores([ALARMS_STORE], 'readwrite', tx => {
+    const store = tx.objectStore(ALARMS_STORE);
+    for (const alarm of existing) {
+      if (alarm._id && !isLocalId(alarm._id) && !present.has(alarm._id)) {
+        store.delete(alarm._id);
+      }
+    }
+    deleted.forEach(id => store.delete(id));
+    alarms.forEach(alarm => store.put(alarm));
+  });
+};
+
+// Delta sync cursor per user
+export const getSyncCursor = async (userId: string): Promise<string | null> => {
+  const cursor = await withStores([META_STORE], 'readonly', tx =>
+    requestResult<string | undefined>(tx.objectStore(META_STORE).get(`cursor:${userId}`))
+  );
+  return cursor || null;
+};
+
+export const setSyncCursor = async (userId: string, cursor: string): Promise<void> => {
+  await withStores([META_STORE], 'readwrite', tx => {
+    tx.objectStore(META_STORE).put(cursor, `cursor:${userId}`);
+  });
+};
+
+// Queue a write together with its local effect, atomically: the alarm is
+// stored, or removed for null, or left alone when undefined
+export const enqueueWrite = async (entry: OutboxEntry, localAlarm?: Alarm | null): Promise<void> => {
+  await withStores([ALARMS_STORE, OUTBOX_STORE], 'readwrite', tx => {
+    const alarms = tx.objectStore(ALARMS_STORE);
+    if (localAlarm) {
+      alarms.put(localAlarm);
+    } else if (localAlarm === null) {
+      alarms.delete(entry.id);
+    }
+    tx.objectStore(OUTBOX_STORE).add(entry);
+  });
+};
+
+// Pending writes in the order they were made
+export const readOutbox = async (): Promise<OutboxEntry[]> => {
+  return withStores([OUTBOX_STORE], 'readonly', tx =>
+    requestResult<OutboxEntry[]>(tx.objectStore(OUTBOX_STORE).getAll())
+  );
+};
+
+export const removeOutboxEntries = async (seqs: number[]): Promise<void> => {
+  await withStores([OUTBOX_STORE], 'readwrite', tx => {
+    const store = tx.objectStore(OUTBOX_STORE);
+    seqs.forEach(seq => store.delete(seq));
+  });
+};
+
+// Swap an offline id for the one the backend assigned, in the alarm and
+// in every queued write that refers to it
+export const replaceLocalId = async (localId: string, alarm: Alarm): Promise<void> => {
+  const entries = await readOutbox();
+
+  await withStores([ALARMS_STORE, OUTBOX_STORE], 'readwrite', tx => {
+    const alarms = tx.objectStore(ALARMS_STORE);
+    alarms.delete(localId);
+    alarms.put(alarm);
+
+    const outbox = tx.objectStore(OUTBOX_STORE);
+    for (const entry of entries) {
+      if (entry.id === localId) {
+        outbox.put({ ...entry, id: alarm._id! });
+      }
+    }
+  });
+};
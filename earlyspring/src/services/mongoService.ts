@@ -6,8 +6,20 @@
 const API_BASE_URL = import.meta.env.VITE_API_BASE_URL || 'http://localhost:3000/api';
 const DB_NAME = import.meta.env.VITE_MONGO_DB_NAME || 'earlyspring';
 
-// Helper function to make API requests
-const makeRequest = async (endpoint: string, method: string, body?: any) => {
+// Error for a non-2xx response; `status` lets callers tell conflicts and
+// bad requests apart from server trouble
+export class ApiError extends Error {
+  status: number;
+
+  constructor(status: number, message: string) {
+    super(`API request failed: ${status} ${message}`);
+    this.name = 'ApiError';
+    this.status = status;
+  }
+}
+
+// Send one request to the backend
+const sendRequest = async (endpoint: string, method: string, body?: any) => {
   try {
     const response = await fetch(`${API_BASE_URL}/${endpoint}`, {
       method,
@@ -19,7 +31,7 @@ const makeRequest = async (endpoint: string, method: string, body?: any) => {
 
     if (!response.ok) {
       const errorText = await response.text();
-      throw new Error(`API request failed: ${response.status} ${errorText}`);
+      throw new ApiError(response.status, errorText);
     }
 
     return await response.json();
@@ -29,6 +41,78 @@ const makeRequest = async (endpoint: string, method: string, body?: any) => {
   }
 };
 
+// Proxy operations that can share one /api/batch request
+const BATCHABLE_ENDPOINTS = new Set(['find', 'findOne', 'insertOne', 'updateOne', 'deleteOne']);
+
+// Matches the backend's per-batch limit
+const MAX_BATCH_OPERATIONS = 100;
+
+interface PendingOperation {
+  endpoint: string;
+  body: any;
+  resolve: (result: any) => void;
+  reject: (error: unknown) => void;
+}
+
+let pendingBatch: PendingOperation[] = [];
+let batchTimer: ReturnType<typeof setTimeout> | null = null;
+
+// Send everything queued since the last flush. A lone operation goes to its
+// own endpoint; two or more share a /api/batch request and are answered in
+// order.
+const flushBatch = async () => {
+  const batch = pendingBatch;
+  pendingBatch = [];
+  if (batchTimer) {
+    clearTimeout(batchTimer);
+    batchTimer = null;
+  }
+
+  if (batch.length === 1) {
+    const [{ endpoint, body, resolve, reject }] = batch;
+    sendRequest(endpoint, 'POST', body).then(resolve, reject);
+    return;
+  }
+
+  try {
+    const { results } = await sendRequest('batch', 'POST', {
+      operations: batch.map(({ endpoint, body }) => ({ op: endpoint, ...body }))
+    });
+
+    batch.forEach((operation, index) => {
+      const { status, error, ...result } = results[index];
+      if (status === 200) {
+        operation.resolve(result);
+      } else {
+        const batchError = new ApiError(status, error);
+        console.error(`Error in POST ${operation.endpoint}:`, batchError);
+        operation.reject(batchError);
+      }
+    });
+  } catch (error) {
+    batch.forEach(operation => operation.reject(error));
+  }
+};
+
+// Helper function to make API requests. Proxy operations issued in the same
+// tick (e.g. alarms and next alarm requested together) are coalesced into a
+// single HTTP request.
+export const makeRequest = (endpoint: string, method: string, body?: any): Promise<any> => {
+  if (method !== 'POST' || !BATCHABLE_ENDPOINTS.has(endpoint)) {
+    return sendRequest(endpoint, method, body);
+  }
+
+  return new Promise((resolve, reject) => {
+    pendingBatch.push({ endpoint, body, resolve, reject });
+
+    if (pendingBatch.length >= MAX_BATCH_OPERATIONS) {
+      flushBatch();
+    } else if (!batchTimer) {
+      batchTimer = setTimeout(flushBatch, 0);
+    }
+  });
+};
+
 // Generic function to find documents in a collection
 export const findDocuments = async <T>(
   collection: string,
@@ -79,17 +163,11 @@ export const insertOneDocument = async <T>(
   document: Record<string, any>
 ): Promise<T> => {
   try {
-    // Add timestamps
-    const docWithTimestamps = {
-      ...document,
-      createdAt: new Date(),
-      updatedAt: new Date()
-    };
-
+    // createdAt/updatedAt are stamped by the server
     const result = await makeRequest('insertOne', 'POST', {
       collection,
       database: DB_NAME,
-      document: docWithTimestamps
+      document
     });
 
     return result.document as T;
@@ -99,27 +177,40 @@ export const insertOneDocument = async <T>(
   }
 };
 
+// Options for updateOneDocument
+export interface UpdateOptions {
+  // Which version of the document to return ('none' skips reading it back)
+  returnDocument?: 'after' | 'before' | 'none';
+  // Insert a new document when nothing matches the filter
+  upsert?: boolean;
+  // Fields only written when the upsert inserts
+  setOnInsert?: Record<string, any>;
+  // Only write if the stored updatedAt still equals this; otherwise 409
+  ifUpdatedAt?: string;
+  // The same against an alarm's editedAt, which only client edits move
+  ifEditedAt?: string;
+}
+
 // Update a single document in a collection
 export const updateOneDocument = async <T>(
   collection: string,
   filter: Record<string, any>,
-  update: Record<string, any>
+  update: Record<string, any>,
+  options: UpdateOptions = {}
 ): Promise<T | null> => {
   try {
-    // Add updated timestamp
-    const updateWithTimestamp = {
-      ...update,
-      updatedAt: new Date()
-    };
-
+    // updatedAt (and createdAt on upsert) are stamped by the server
+    const { setOnInsert, ...updateOptions } = options;
     const result = await makeRequest('updateOne', 'POST', {
       collection,
       database: DB_NAME,
       filter,
-      update: updateWithTimestamp
+      update,
+      setOnInsert,
+      options: updateOptions
     });
 
-    return result.document as T;
+    return (result.document ?? null) as T | null;
   } catch (error) {
     console.error('Error updating document:', error);
     throw error;
@@ -0,0 +1,135 @@
+// src/services/soundSynth.ts
+
+// Alarm sounds generated from short note lists instead of downloaded files.
+// Each preset describes one loop: a few notes with a waveform, a pitch
+// (optionally gliding), an envelope and a level. Rendering writes the
+// samples straight into an AudioBuffer in tens of milliseconds, so the
+// sounds work offline and need no fetch or decode.
+
+type Waveform = 'sine' | 'triangle' | 'square';
+
+interface SynthNote {
+  // Start within the loop and length, in seconds
+  at: number;
+  duration: number;
+  frequency: number;
+  // Glide linearly to this frequency over the note
+  toFrequency?: number;
+  waveform?: Waveform;
+  gain?: number;
+  // Linear attack, then exponential decay to silence at the note's end
+  attack?: number;
+  // Extra partials as [frequency ratio, relative gain], for bell tones
+  partials?: [number, number][];
+}
+
+interface SynthPreset {
+  loopSeconds: number;
+  notes: SynthNote[];
+}
+
+// Inharmonic partials of a struck bell
+const BELL_PARTIALS: [number, number][] = [[2.76, 0.4], [5.4, 0.2], [8.93, 0.08]];
+
+const chirp = (at: number, from: number, to: number): SynthNote => ({
+  at, duration: 0.08, frequency: from, toFrequency: to, gain: 0.35, attack: 0.01
+});
+
+const SYNTH_PRESETS: Record<string, SynthPreset> = {
+  birds: {
+    loopSeconds: 2.4,
+    notes: [
+      chirp(0, 2800, 4200), chirp(0.12, 2900, 4300), chirp(0.24, 3000, 4400),
+      chirp(0.9, 4500, 3200), chirp(1.05, 4400, 3100),
+      chirp(1.6, 3200, 3800), chirp(1.7, 3200, 3800), chirp(1.8, 3200, 3800), chirp(1.9, 3300, 4000)
+    ]
+  },
+  digital: {
+    loopSeconds: 1.2,
+    notes: [0, 0.14, 0.28, 0.42].map(at => ({
+      at, duration: 0.08, frequency: 2000, waveform: 'square' as const, gain: 0.15, attack: 0.002
+    }))
+  },
+  gentle_chime: {
+    loopSeconds: 3,
+    notes: [1046.5, 1318.5, 1568].map((frequency, index) => ({
+      at: index * 0.5, duration: 2.2, frequency, gain: 0.25, attack: 0.005, partials: BELL_PARTIALS
+    }))
+  },
+  rising_bell: {
+    loopSeconds: 3.2,
+    notes: [523.25, 659.25, 783.99, 1046.5].map((frequency, index) => ({
+      at: index * 0.6, duration: 1.4, frequency, gain: 0.2 + index * 0.05, attack: 0.005, partials: BELL_PARTIALS
+    }))
+  },
+  // Last-resort alarm when no sound can be loaded
+  beep: {
+    loopSeconds: 1,
+    notes: [{ at: 0, duration: 0.5, frequency: 800, gain: 0.5, attack: 0.005 }]
+  }
+};
+
+export const BEEP_SOUND = 'beep';
+
+// Own keys only, so ids like "toString" or "constructor" are not presets
+export const isSynthSound = (sound: string): boolean => Object.hasOwn(SYNTH_PRESETS, sound);
+
+const wave = (waveform: Waveform, phase: number): number => {
+  switch (waveform) {
+    case 'square':
+      return phase < 0.5 ? 1 : -1;
+    case 'triangle':
+      return 1 - 4 * Math.abs(phase - 0.5);
+    default:
+      return Math.sin(2 * Math.PI * phase);
+  }
+};
+
+// Add one note (and its partials) into the loop
+const renderNote = (samples: Float32Array, sampleRate: number, note: SynthNote): void => {
+  const start = Math.floor(note.at * sampleRate);
+  const length = Math.min(Math.floor(note.duration * sampleRate), samples.length - start);
+  const attack = Math.max(1, Math.floor((note.attack ?? 0.01) * sampleRate));
+  // Reach about -60dB at the end of the note
+  const decayFactor = Math.exp(-Math.log(1000) / Math.max(1, length - attack));
+  const waveform = note.waveform || 'sine';
+  const glide = ((note.toFrequency ?? note.frequency) - note.frequency) / length;
+  const gain = note.gain ?? 0.3;
+
+  for (const [ratio, level] of [[1, 1], ...(note.partials || [])]) {
+    let phase = 0;
+    let envelope = 0;
+
+    for (let i = 0; i < length; i++) {
+      envelope = i < attack ? i / attack : envelope * decayFactor;
+      phase += (note.frequency + glide * i) * ratio / sampleRate;
+      if (phase >= 1) phase -= Math.floor(phase);
+      samples[start + i] += gain * level * envelope * wave(waveform, phase);
+    }
+  }
+};
+
+// Render a preset's loop into an AudioBuffer for `context`
+export const renderSynthSound = (context: BaseAudioContext, sound: string): AudioBuffer => {
+  const preset = SYNTH_PRESETS[sound];
+  if (!preset) {
+    throw new Error(`Unknown synthesized sound: ${sound}`);
+  }
+
+  const buffer = context.createBuffer(1, Math.ceil(preset.loopSeconds * context.sampleRate), context.sampleRate);
+  const samples = buffer.getChannelData(0);
+  preset.notes.forEach(note => renderNote(samples, context.sampleRate, note));
+
+  // Keep overlapping notes from clipping
+  let peak = 0;
+  for (let i = 0; i < samples.length; i++) {
+    peak = Math.max(peak, Math.abs(samples[i]));
+  }
+  if (peak > 1) {
+    for (let i = 0; i < samples.length; i++) {
+      samples[i] /= peak;
+    }
+  }
+
+  return buffer;
+};
@@ -1,5 +1,7 @@
 // src/services/ttsService.ts
 
+import { decodeAudio, duckAlarms, playSpeech, routeSpeechElement, stopSpeech } from './audioEngine';
+
 // Configuration
 const API_BASE_URL = import.meta.env.VITE_API_BASE_URL || 'http://localhost:3000/api';
 const TTS_PROXY_ENDPOINT = `${API_BASE_URL}/tts-proxy`;
@@ -8,6 +10,12 @@ const TTS_PROXY_ENDPOINT = `${API_BASE_URL}/tts-proxy`;
 // TODO dont forget this!
 let USE_BROWSER_TTS = true;
 
+// Max number of sentence segments synthesized at once
+const TTS_SEGMENT_CONCURRENCY = 3;
+
+// Bumped by cancelSpeech so sentence loops in progress stop early
+let speechGeneration = 0;
+
 // Browser voice settings
 const BROWSER_VOICE_SETTINGS = {
   preferFemale: true, // Try to use a female voice if available
@@ -88,66 +96,189 @@ const useBrowserTTS = (text: string): Promise<void> => {
 };
 
 // Use proxy server to make request to TTS API
-const useProxyTTS = async (text: string): Promise<ArrayBuffer> => {
+// Resolves once the response headers arrive; the body is still streaming.
+// A GET lets the browser's HTTP cache keep the audio (the proxy sends an
+// ETag and a day-long Cache-Control), so repeated phrases skip the network.
+const useProxyTTS = async (text: string, signal?: AbortSignal): Promise<Response> => {
   try {
     console.log('Using backend proxy for TTS request');
 
-    const response = await fetch(TTS_PROXY_ENDPOINT, {
-      method: 'POST',
-      headers: {
-        'Content-Type': 'application/json'
-      },
-      body: JSON.stringify({ text })
-    });
+    // Same whitespace folding as the proxy, so equal phrases share a URL
+    const normalized = text.replace(/\s+/g, ' ').trim();
+    const response = await fetch(`${TTS_PROXY_ENDPOINT}?text=${encodeURIComponent(normalized)}`, { signal });
 
     if (!response.ok) {
       const errorData = await response.json().catch(() => ({}));
       throw new Error(`Proxy server error: ${response.status} ${response.statusText} ${errorData.error || ''}`);
     }
 
-    return await response.arrayBuffer();
+    return response;
   } catch (error) {
-    console.error('Proxy TTS error:', error);
+    if (!signal?.aborted) {
+      console.error('Proxy TTS error:', error);
+    }
     throw error;
   }
 };
 
-// Play audio from array buffer
-const playAudio = (audioData: ArrayBuffer): Promise<void> => {
+// Check whether a response can be played progressively through MediaSource
+const canStreamAudio = (contentType: string): boolean => {
+  return 'MediaSource' in window && MediaSource.isTypeSupported(contentType);
+};
+
+// Play an audio response while it downloads: chunks are appended to a
+// MediaSource buffer as they arrive and playback starts after the first one.
+// stopSpeech cancels the download and resolves the promise; callers stop
+// speaking further segments through speechGeneration, not by rejection,
+// which would fall back to the browser voice.
+const playAudioStream = (response: Response, contentType: string): Promise<void> => {
   return new Promise((resolve, reject) => {
+    const mediaSource = new MediaSource();
+    const audio = new Audio();
+    const objectUrl = URL.createObjectURL(mediaSource);
+    audio.src = objectUrl;
+    let reader: ReadableStreamDefaultReader<Uint8Array> | null = null;
+    let settled = false;
+
+    // Release the element and settle, once, however playback ends
+    const finish = (error?: Error) => {
+      if (settled) return;
+      settled = true;
+      disconnect();
+      URL.revokeObjectURL(objectUrl);
+      audio.removeAttribute('src');
+      if (error) {
+        reject(error);
+      } else {
+        resolve();
+      }
+    };
+
+    const disconnect = routeSpeechElement(audio, () => {
+      reader?.cancel().catch(() => {});
+      finish();
+    });
+
+    audio.onended = () => finish();
+    audio.onerror = () => finish(new Error('Error playing streamed audio'));
+
+    mediaSource.addEventListener('sourceopen', async () => {
+      try {
+        const sourceBuffer = mediaSource.addSourceBuffer(contentType);
+        reader = response.body!.getReader();
+        let started = false;
+
+        for (;;) {
+          const { done, value } = await reader.read();
+          if (settled) return;
+          if (done) break;
+
+          await new Promise<void>((appended, failed) => {
+            sourceBuffer.addEventListener('updateend', () => appended(), { once: true });
+            sourceBuffer.addEventListener('error', () => failed(new Error('Error appending audio chunk')), { once: true });
+            sourceBuffer.appendBuffer(value);
+          });
+
+          if (settled) return;
+          if (!started) {
+            started = true;
+            audio.play().catch(finish);
+          }
+        }
+
+        mediaSource.endOfStream();
+
+        if (!started) {
+          finish();
+        }
+      } catch (error) {
+        finish(error as Error);
+      }
+    }, { once: true });
+  });
+};
+
+// Decode speech audio on the shared audio engine
+const decodeSpeech = (audioData: ArrayBuffer): Promise<AudioBuffer> => {
+  return decodeAudio(audioData).catch(error => {
+    throw new Error(`Error decoding audio data: ${error}`);
+  });
+};
+
+// Play audio from array buffer
+const playAudio = async (audioData: ArrayBuffer): Promise<void> => {
+  await playSpeech(await decodeSpeech(audioData));
+};
+
+// Split text into sentences. Fixed phrases like "Time to wake up!" then
+// become their own cache entries on the backend and are shared across users.
+export const splitIntoSentences = (text: string): string[] => {
+  return text
+    .replace(/\s+/g, ' ')
+    .split(/(?<=[.!?])\s+/)
+    .map(sentence => sentence.trim())
+    .filter(sentence => sentence.length > 0);
+};
+
+// Run async tasks with at most `limit` of them active at once
+const createLimiter = (limit: number) => {
+  let active = 0;
+  const waiting: (() => void)[] = [];
+
+  return async <T>(task: () => Promise<T>): Promise<T> => {
+    if (active >= limit) {
+      await new Promise<void>(resolve => waiting.push(resolve));
+    }
+    active++;
+    try {
+      return await task();
+    } finally {
+      active--;
+      waiting.shift()?.();
+    }
+  };
+};
+
+// Synthesize sentences in parallel and play them back in order. The first
+// sentence is streamed as soon as its headers arrive; later ones download
+// fully while earlier ones play.
+const speakWithProxy = async (text: string): Promise<void> => {
+  const segments = splitIntoSentences(text);
+  const limit = createLimiter(TTS_SEGMENT_CONCURRENCY);
+
+  const pending = segments.map((segment, index) =>
+    limit<Response | ArrayBuffer>(async () => {
+      const response = await useProxyTTS(segment);
+      return index === 0 ? response : response.arrayBuffer();
+    })
+  );
+
+  // Failures are handled in order below; don't report them as unhandled
+  pending.forEach(promise => promise.catch(() => {}));
+
+  const generation = speechGeneration;
+  for (let i = 0; i < segments.length; i++) {
+    if (generation !== speechGeneration) return;
     try {
-      // Create audio context
-      const audioContext = new (window.AudioContext || (window as any).webkitAudioContext)();
-
-      // Decode audio data
-      audioContext.decodeAudioData(
-        audioData,
-        (buffer) => {
-          // Create source node
-          const source = audioContext.createBufferSource();
-          source.buffer = buffer;
-
-          // Connect to output
-          source.connect(audioContext.destination);
-
-          // Set callbacks
-          source.onended = () => {
-            resolve();
-            audioContext.close().catch(err => console.warn('Error closing audio context:', err));
-          };
-
-          // Start playing
-          source.start(0);
-        },
-        (error) => {
-          reject(new Error(`Error decoding audio data: ${error}`));
-          audioContext.close().catch(err => console.warn('Error closing audio context:', err));
+      const audio = await pending[i];
+
+      if (audio instanceof Response) {
+        const contentType = audio.headers.get('Content-Type') || 'audio/mpeg';
+        if (audio.body && canStreamAudio(contentType)) {
+          await playAudioStream(audio, contentType);
+        } else {
+          await playAudio(await audio.arrayBuffer());
         }
-      );
+      } else {
+        await playAudio(audio);
+      }
     } catch (error) {
-      reject(new Error(`Error setting up audio playback: ${error}`));
+      // Speak whatever is left with the browser voice
+      console.warn('TTS API error, falling back to browser TTS:', error);
+      await useBrowserTTS(segments.slice(i).join(' '));
+      return;
     }
-  });
+  }
 };
 
 // Set TTS mode
@@ -167,8 +298,10 @@ export const configureBrowserVoice = (settings: Partial<typeof BROWSER_VOICE_SET
   console.log('Browser voice settings updated:', BROWSER_VOICE_SETTINGS);
 };
 
-// Main TTS function with mode selection
+// Main TTS function with mode selection. Ringing alarms are ducked while
+// it speaks.
 export const speakText = async (text: string): Promise<void> => {
+  const release = duckAlarms();
   try {
     console.log('TTS request for text:', text);
 
@@ -179,15 +312,11 @@ export const speakText = async (text: string): Promise<void> => {
     }
 
     // Otherwise try API first, then fallback to browser
-    try {
-      const audioData = await useProxyTTS(text);
-      await playAudio(audioData);
-    } catch (error) {
-      console.warn('TTS API error, falling back to browser TTS:', error);
-      await useBrowserTTS(text);
-    }
+    await speakWithProxy(text);
   } catch (error) {
     console.error('TTS error:', error);
+  } finally {
+    release();
   }
 };
 
@@ -196,12 +325,12 @@ export const generateWeatherText = (temp: number, condition: string): string =>
   return `The weather today is ${condition.toLowerCase()} with a temperature of ${Math.round(temp)} degrees Celsius.`;
 };
 
-// Prepare and speak alarm notification with weather
-export const speakAlarmNotification = async (
+// Text announced when an alarm rings
+export const buildAlarmSpeech = (
   alarmLabel: string | undefined,
   includeWeather: boolean = false,
   weatherText?: string
-): Promise<void> => {
+): string => {
   let text = 'Time to wake up!';
 
   if (alarmLabel) {
@@ -212,10 +341,88 @@ export const speakAlarmNotification = async (
     text = `${text} ${weatherText}`;
   }
 
+  return text;
+};
+
+// Prepare and speak alarm notification with weather
+export const speakAlarmNotification = async (
+  alarmLabel: string | undefined,
+  includeWeather: boolean = false,
+  weatherText?: string
+): Promise<void> => {
+  const text = buildAlarmSpeech(alarmLabel, includeWeather, weatherText);
+
   console.log('Speaking alarm notification:', text);
   await speakText(text);
 };
 
+// Speech synthesized ahead of time. In API mode `clips` holds one decoded
+// clip per sentence; browser TTS speaks `text` directly.
+export interface PreparedSpeech {
+  text: string;
+  sentences: string[];
+  clips?: AudioBuffer[];
+}
+
+// Synthesize and decode speech now so speaking it later starts instantly.
+// Aborting `signal` stops the sentences not yet fetched and rejects.
+export const prepareSpeech = async (text: string, signal?: AbortSignal): Promise<PreparedSpeech> => {
+  const sentences = splitIntoSentences(text);
+
+  if (USE_BROWSER_TTS) {
+    // Some browsers only load their voice list on first request
+    if (checkTTSSupport()) {
+      window.speechSynthesis.getVoices();
+    }
+    return { text, sentences };
+  }
+
+  const limit = createLimiter(TTS_SEGMENT_CONCURRENCY);
+  const clips = await Promise.all(sentences.map(sentence =>
+    limit(async () => {
+      signal?.throwIfAborted();
+      const response = await useProxyTTS(sentence, signal);
+      return decodeSpeech(await response.arrayBuffer());
+    })
+  ));
+
+  return { text, sentences, clips };
+};
+
+// Speak prepared speech, falling back to the browser voice like speakText
+export const speakPrepared = async (speech: PreparedSpeech): Promise<void> => {
+  if (!speech.clips || USE_BROWSER_TTS) {
+    await speakText(speech.text);
+    return;
+  }
+
+  const release = duckAlarms();
+  const generation = speechGeneration;
+  try {
+    for (let i = 0; i < speech.clips.length; i++) {
+      if (generation !== speechGeneration) return;
+      try {
+        await playSpeech(speech.clips[i]);
+      } catch (error) {
+        console.warn('TTS playback error, falling back to browser TTS:', error);
+        await useBrowserTTS(speech.sentences.slice(i).join(' ')).catch(() => {});
+        return;
+      }
+    }
+  } finally {
+    release();
+  }
+};
+
+// Stop whatever is being spoken, in either mode
+export const cancelSpeech = (): void => {
+  speechGeneration++;
+  if (checkTTSSupport()) {
+    window.speechSynthesis.cancel();
+  }
+  stopSpeech();
+};
+
 // Check if browser supports TTS
 export const checkTTSSupport = (): boolean => {
   return 'speechSynthesis' in window;
@@ -1,13 +1,29 @@
 // src/services/userService.ts
 
 import { User } from '../types';
-import { findOneDocument, insertOneDocument, updateOneDocument } from './mongoService';
+import { findOneDocument, makeRequest, updateOneDocument } from './mongoService';
 
 const USERS_COLLECTION = 'users';
 
-// Get user by Google ID
-export const getUser = async (googleId: string): Promise<User | null> => {
-  return await findOneDocument<User>(USERS_COLLECTION, { googleId });
+// Last signed-in user, kept so alarms can be armed (and the app used)
+// before auth and the backend respond
+const LAST_USER_STORAGE_KEY = 'earlyspring.lastUser';
+
+export const rememberUser = (user: User | null): void => {
+  if (user) {
+    localStorage.setItem(LAST_USER_STORAGE_KEY, JSON.stringify(user));
+  } else {
+    localStorage.removeItem(LAST_USER_STORAGE_KEY);
+  }
+};
+
+export const getRememberedUser = (): User | null => {
+  try {
+    const stored = localStorage.getItem(LAST_USER_STORAGE_KEY);
+    return stored ? JSON.parse(stored) : null;
+  } catch {
+    return null;
+  }
 };
 
 // Get user by MongoDB ID
@@ -15,18 +31,6 @@ export const getUserById = async (id: string): Promise<User | null> => {
   return await findOneDocument<User>(USERS_COLLECTION, { _id: { $oid: id } });
 };
 
-// Create a new user
-export const createUser = async (userData: User): Promise<User> => {
-  // Set default values for new users
-  const newUser: User = {
-    ...userData,
-    plantHealth: 100,
-    plantLevel: 1
-  };
-
-  return await insertOneDocument<User>(USERS_COLLECTION, newUser);
-};
-
 // Update user data
 export const updateUser = async (userId: string, userData: Partial<User>): Promise<User | null> => {
   return await updateOneDocument<User>(
@@ -36,35 +40,15 @@ export const updateUser = async (userId: string, userData: Partial<User>): Promi
   );
 };
 
-// Update plant health
+// Update plant health. The server clamps health to 0-100 and derives the
+// level (1-5) in one atomic update.
 export const updatePlantHealth = async (
   userId: string,
   healthChange: number
 ): Promise<User | null> => {
-  // First get current user data
-  const user = await getUserById(userId);
+  const result = await makeRequest(`users/${userId}/plantHealth`, 'POST', {
+    delta: healthChange
+  });
 
-  if (!user) {
-    throw new Error('User not found');
-  }
-
-  // Calculate new health value
-  let newHealth = (user.plantHealth || 100) + healthChange;
-
-  // Clamp health between 0 and 100
-  newHealth = Math.max(0, Math.min(100, newHealth));
-
-  // Calculate plant level (1-5) based on health
-  // Level 1: 0-20, Level 2: 21-40, Level 3: 41-60, Level 4: 61-80, Level 5: 81-100
-  const newLevel = Math.ceil(newHealth / 20);
-
-  // Update the user
-  return await updateOneDocument<User>(
-    USERS_COLLECTION,
-    { _id: { $oid: userId } },
-    {
-      plantHealth: newHealth,
-      plantLevel: newLevel
-    }
-  );
+  return result.document as User;
 };
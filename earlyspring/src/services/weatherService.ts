@@ -2,8 +2,22 @@
 
 import { WeatherData } from '../types';
 
-// Open-Meteo API endpoint (no API key required)
-const WEATHER_API_ENDPOINT = 'https://api.open-meteo.com/v1';
+// Backend weather endpoint; it proxies Open-Meteo through a shared tile cache
+const API_BASE_URL = import.meta.env.VITE_API_BASE_URL || 'http://localhost:3000/api';
+const WEATHER_ENDPOINT = `${API_BASE_URL}/weather`;
+
+// Last known location, kept so startup can ask for weather without
+// waiting on the geolocation prompt
+const LOCATION_STORAGE_KEY = 'earlyspring.lastLocation';
+
+export const getCachedLocation = (): { lat: number; lon: number } | null => {
+  try {
+    const stored = localStorage.getItem(LOCATION_STORAGE_KEY);
+    return stored ? JSON.parse(stored) : null;
+  } catch {
+    return null;
+  }
+};
 
 // Get user's location
 export const getUserLocation = async (): Promise<{ lat: number; lon: number }> => {
@@ -15,10 +29,12 @@ export const getUserLocation = async (): Promise<{ lat: number; lon: number }> =
 
     navigator.geolocation.getCurrentPosition(
       (position) => {
-        resolve({
+        const location = {
           lat: position.coords.latitude,
           lon: position.coords.longitude
-        });
+        };
+        localStorage.setItem(LOCATION_STORAGE_KEY, JSON.stringify(location));
+        resolve(location);
       },
       (error) => {
         console.error('Error getting location:', error);
@@ -67,51 +83,35 @@ const mapWeatherCode = (code: number) => {
   return codeMap[code] || codeMap[0]; // Default to clear sky if code not found
 };
 
-// Fetch weather data from Open-Meteo API
-export const fetchWeatherData = async (): Promise<WeatherData> => {
-  try {
-    const { lat, lon } = await getUserLocation();
-
-    // Get forecast including current weather
-    const response = await fetch(
-      `${WEATHER_API_ENDPOINT}/forecast?` +
-      `latitude=${lat}&longitude=${lon}` +
-      `&current=temperature_2m,relative_humidity_2m,weather_code` +
-      `&hourly=temperature_2m,weather_code` +
-      `&daily=temperature_2m_max,temperature_2m_min` +
-      `&timezone=auto&forecast_days=2`
-    );
-
-    if (!response.ok) {
-      throw new Error('Failed to fetch weather data');
-    }
-
-    const data = await response.json();
+// Fetch weather data (Open-Meteo format) through the backend tile cache.
+// Passing the user id lets the backend prefetch this tile before their alarms.
+// Throws on failure; `location` skips the geolocation lookup. `fresh`
+// skips the service worker's cached copy unless offline.
+export const requestWeatherData = async (
+  userId?: string,
+  location?: { lat: number; lon: number },
+  fresh: boolean = false
+): Promise<WeatherData> => {
+  const { lat, lon } = location || await getUserLocation();
+
+  // Get forecast including current weather
+  const userParam = userId ? `&userId=${encodeURIComponent(userId)}` : '';
+  const response = await fetch(`${WEATHER_ENDPOINT}?lat=${lat}&lon=${lon}${userParam}`, {
+    cache: fresh ? 'no-cache' : 'default'
+  });
 
-    // Process current weather
-    const current = {
-      temp: data.current.temperature_2m,
-      temp_min: data.daily.temperature_2m_min[0],
-      temp_max: data.daily.temperature_2m_max[0],
-      weather: [mapWeatherCode(data.current.weather_code)]
-    };
+  if (!response.ok) {
+    throw new Error('Failed to fetch weather data');
+  }
 
-    // Process hourly forecast for the next 18 hours (6 items at 3-hour intervals)
-    const forecast = [];
-    const currentHour = new Date().getHours();
-    for (let i = 0; i <= 5; i++) {
-      const index = i * 3; // Every 3 hours
-      if (data.hourly.time[currentHour+index]) {
-        const date = new Date(data.hourly.time[currentHour+index]);
-        forecast.push({
-          time: `${date.getHours().toString().padStart(2, '0')}:00`,
-          temp: data.hourly.temperature_2m[index],
-          weather: mapWeatherCode(data.hourly.weather_code[index])
-        });
-      }
-    }
+  const { data } = await response.json();
+  return toWeatherData(data);
+};
 
-    return { current, forecast };
+// Like requestWeatherData, but never fails
+export const fetchWeatherData = async (userId?: string): Promise<WeatherData> => {
+  try {
+    return await requestWeatherData(userId);
   } catch (error) {
     console.error('Error fetching weather data:', error);
     // Return empty data structure in case of error
@@ -127,6 +127,34 @@ export const fetchWeatherData = async (): Promise<WeatherData> => {
   }
 };
 
+// Convert an Open-Meteo forecast into the app's WeatherData shape
+export const toWeatherData = (data: any): WeatherData => {
+  // Process current weather
+  const current = {
+    temp: data.current.temperature_2m,
+    temp_min: data.daily.temperature_2m_min[0],
+    temp_max: data.daily.temperature_2m_max[0],
+    weather: [mapWeatherCode(data.current.weather_code)]
+  };
+
+  // Process hourly forecast for the next 18 hours (6 items at 3-hour intervals)
+  const forecast = [];
+  const currentHour = new Date().getHours();
+  for (let i = 0; i <= 5; i++) {
+    const index = i * 3; // Every 3 hours
+    if (data.hourly.time[currentHour+index]) {
+      const date = new Date(data.hourly.time[currentHour+index]);
+      forecast.push({
+        time: `${date.getHours().toString().padStart(2, '0')}:00`,
+        temp: data.hourly.temperature_2m[index],
+        weather: mapWeatherCode(data.hourly.weather_code[index])
+      });
+    }
+  }
+
+  return { current, forecast };
+};
+
 // Format weather data for speech output
 export const formatWeatherForSpeech = (weather: WeatherData): string => {
   const current = weather.current;
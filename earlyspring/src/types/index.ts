@@ -26,6 +26,11 @@ export interface User {
     snoozeTime?: number; // in minutes
     snoozeBehavior?: 'repeat' | 'repeat_shorten' | 'once';
     weatherAlert?: boolean;
+    timeZone?: string; // IANA zone the alarm time is expressed in
+    dayMask?: number; // 7-bit mask of days, bit 0 = Sunday (maintained by the backend)
+    minutes?: number; // minutes since midnight (maintained by the backend)
+    nextFireAt?: number | null; // epoch ms of the next ring (maintained by the backend)
+    editedAt?: Date; // last client edit; unlike updatedAt, not moved by backend rescheduling
     createdAt?: Date;
     updatedAt?: Date;
   }
@@ -0,0 +1,115 @@
+// src/utils/alarmQueue.ts
+
+// Binary min-heap of scheduled alarms ordered by fire time. A position map
+// keyed by alarm id makes lookup O(1) and insert, reschedule and cancel
+// O(log n), so the scheduler only ever needs to look at the top entry.
+
+export interface QueuedAlarm<T> {
+  id: string;
+  fireAt: number;
+  value: T;
+}
+
+export class AlarmQueue<T> {
+  private heap: QueuedAlarm<T>[] = [];
+  private positions = new Map<string, number>();
+
+  get size(): number {
+    return this.heap.length;
+  }
+
+  peek(): QueuedAlarm<T> | null {
+    return this.heap[0] || null;
+  }
+
+  get(id: string): QueuedAlarm<T> | null {
+    const index = this.positions.get(id);
+    return index === undefined ? null : this.heap[index];
+  }
+
+  // Insert an entry, replacing any entry with the same id
+  set(id: string, fireAt: number, value: T): void {
+    const index = this.positions.get(id);
+    if (index === undefined) {
+      this.heap.push({ id, fireAt, value });
+      this.positions.set(id, this.heap.length - 1);
+      this.siftUp(this.heap.length - 1);
+      return;
+    }
+
+    const entry = this.heap[index];
+    const previous = entry.fireAt;
+    entry.fireAt = fireAt;
+    entry.value = value;
+    if (fireAt < previous) {
+      this.siftUp(index);
+    } else {
+      this.siftDown(index);
+    }
+  }
+
+  delete(id: string): QueuedAlarm<T> | null {
+    const index = this.positions.get(id);
+    if (index === undefined) return null;
+
+    const entry = this.heap[index];
+    const last = this.heap.pop()!;
+    this.positions.delete(id);
+
+    if (index < this.heap.length) {
+      this.heap[index] = last;
+      this.positions.set(last.id, index);
+      this.siftDown(index);
+      this.siftUp(index);
+    }
+    return entry;
+  }
+
+  pop(): QueuedAlarm<T> | null {
+    const top = this.heap[0];
+    return top ? this.delete(top.id) : null;
+  }
+
+  clear(): void {
+    this.heap = [];
+    this.positions.clear();
+  }
+
+  // Entries in no particular order
+  values(): QueuedAlarm<T>[] {
+    return [...this.heap];
+  }
+
+  private swap(a: number, b: number): void {
+    const entry = this.heap[a];
+    this.heap[a] = this.heap[b];
+    this.heap[b] = entry;
+    this.positions.set(this.heap[a].id, a);
+    this.positions.set(this.heap[b].id, b);
+  }
+
+  private siftUp(index: number): void {
+    while (index > 0) {
+      const parent = (index - 1) >> 1;
+      if (this.heap[parent].fireAt <= this.heap[index].fireAt) return;
+      this.swap(parent, index);
+      index = parent;
+    }
+  }
+
+  private siftDown(index: number): void {
+    const length = this.heap.length;
+    for (;;) {
+      const left = index * 2 + 1;
+      const right = left + 1;
+      let smallest = index;
+
+      if (left < length && this.heap[left].fireAt < this.heap[smallest].fireAt) smallest = left;
+      if (right < length && this.heap[right].fireAt < this.heap[smallest].fireAt) smallest = right;
+      if (smallest === index) return;
+
+      this.swap(smallest, index);
+      index = smallest;
+    }
+  }
+}
@@ -1,87 +1,230 @@
 // src/utils/alarmScheduler.ts
 
-import { Alarm, WeatherData, WeekDay } from '../types';
-import { speakAlarmNotification } from '../services/ttsService';
+import { Alarm, WeatherData } from '../types';
+import { getNextFireTime } from './alarmTime';
+import { AlarmQueue } from './alarmQueue';
+import { setWakeTimer, clearWakeTimer } from './wakeTimer';
+import { isLeaderTab, electLeaderTab, broadcastAlarmMessage, onAlarmMessage } from './alarmTabs';
+import { startAlarmWatchdog, getUncheckedSince, recordAlarmHandled, getLastHandledAt } from './alarmWatchdog';
+import { warmUpAlarm, isWarmingUp, takePreparedAlarm, cancelWarmUp, PreparedAlarm, WARM_UP_LEAD_MS } from './alarmWarmup';
+import { AlarmSession } from './alarmSession';
+import { playAlarmSound } from '../services/audioEngine';
+import { speakAlarmNotification, speakPrepared, cancelSpeech } from '../services/ttsService';
 import { formatWeatherForSpeech } from '../services/weatherService';
 import { updatePlantHealth } from '../services/userService';
 
-// Store active alarms to manage them globally
-interface ActiveAlarm {
+// What the queue keeps per alarm; entries are ordered by fire time
+interface ScheduledAlarm {
+  alarm: Alarm;
+  weatherData?: WeatherData;
+}
+
+export interface ActiveAlarm {
   id: string;
-  timerId: number;
   alarm: Alarm;
   scheduledTime: Date;
 }
 
-let activeAlarms: ActiveAlarm[] = [];
-let alarmDisplayCallback: ((alarm: Alarm, audio: HTMLAudioElement) => void) | null = null;
+export interface SchedulerStats {
+  scheduled: number;
+  nextFireAt: number | null;
+  wakeups: number;
+  fired: number;
+  // Fired more than LATE_WARNING_MS late, and rung
+  late: number;
+  // Found more than MISSED_AFTER_MS late, and only reported
+  missed: number;
+  // How long after its fire time each alarm actually went off
+  lastLatenessMs: number | null;
+  maxLatenessMs: number;
+  meanLatenessMs: number;
+}
+
+// Longest single sleep. Waking at least this often re-reads the wall clock,
+// which corrects for throttled or suspended timers and clock changes, and
+// keeps every delay far below setTimeout's 2^31 ms limit.
+const MAX_SLEEP_MS = 60 * 1000;
+
+// Lateness above this is logged
+const LATE_WARNING_MS = 1000;
+
+// Alarms found later than this (the device slept through them) are
+// reported as missed instead of ringing
+const MISSED_AFTER_MS = 30 * 60 * 1000;
+
+// How far back a cold start looks for missed alarms
+const MAX_CATCH_UP_MS = 24 * 60 * 60 * 1000;
+
+// The page load, and the start of the window nobody was watching alarms in
+// (if any). Alarms that should have fired in that window are caught up.
+const loadedAt = Date.now();
+const uncheckedSince = getUncheckedSince();
+
+// Every tab keeps the full queue so it can take over, but only the leader
+// tab arms the timer and rings
+const queue = new AlarmQueue<ScheduledAlarm>();
+let timerDueAt: number | null = null;
+
+// Alarms this tab is ringing, so a dismissal in another tab can stop them
+const ringing = new Map<string, AlarmSession>();
+
+// Alarms that have fired on this page, so catch-up never repeats them
+const handledIds = new Set<string>();
+
+const stats = {
+  wakeups: 0,
+  fired: 0,
+  late: 0,
+  missed: 0,
+  lastLatenessMs: null as number | null,
+  maxLatenessMs: 0,
+  totalLatenessMs: 0
+};
+
+let alarmDisplayCallback: ((alarm: Alarm, session: AlarmSession) => void) | null = null;
+let alarmStopCallback: ((alarmId: string) => void) | null = null;
 
 // Register alarm display callback - to be called by AlarmDashboard
-export const registerAlarmDisplayCallback = (callback: (alarm: Alarm, audio: HTMLAudioElement) => void) => {
+export const registerAlarmDisplayCallback = (callback: (alarm: Alarm, session: AlarmSession) => void) => {
   alarmDisplayCallback = callback;
 };
 
-// Check if a day is today
-const isToday = (day: WeekDay): boolean => {
-  const today = new Date();
-  const dayMap: { [key: number]: WeekDay } = {
-    0: 'Sun',
-    1: 'Mon',
-    2: 'Tue',
-    3: 'Wed',
-    4: 'Thu',
-    5: 'Fri',
-    6: 'Sat'
-  };
-
-  return day === dayMap[today.getDay()];
+// Register the callback that hides an alarm dismissed in another tab
+export const registerAlarmStopCallback = (callback: (alarmId: string) => void) => {
+  alarmStopCallback = callback;
 };
 
-// Get the next time an alarm should trigger
-const getNextAlarmTime = (alarm: Alarm): Date | null => {
-  const now = new Date();
-  const [hours, minutes] = alarm.time.split(':').map(Number);
+// Check if two alarms are effectively the same
+const areAlarmsEquivalent = (a: Alarm, b: Alarm): boolean => {
+  return a._id === b._id &&
+         a.time === b.time &&
+         a.isEnabled === b.isEnabled &&
+         JSON.stringify(a.days) === JSON.stringify(b.days);
+};
 
-  // Check if alarm is for today
-  if (alarm.days.some(day => isToday(day))) {
-    const alarmTime = new Date();
-    alarmTime.setHours(hours, minutes, 0, 0);
+// Point the single timer at the earliest alarm (or its warm-up), sleeping
+// at most MAX_SLEEP_MS
+const armTimer = (): void => {
+  if (!isLeaderTab()) return;
 
-    // If the alarm time is already past for today, it won't trigger today
-    if (alarmTime > now) {
-      return alarmTime;
+  const next = queue.peek();
+  if (!next) {
+    if (timerDueAt !== null) {
+      clearWakeTimer();
+      timerDueAt = null;
     }
+    return;
   }
 
-  // Find the next day when the alarm will trigger
-  for (let i = 1; i <= 7; i++) {
-    const nextDay = new Date();
-    nextDay.setDate(now.getDate() + i);
+  const warmUpAt = isWarmingUp(next.id, next.fireAt) ? Infinity : next.fireAt - WARM_UP_LEAD_MS;
+  const dueAt = Math.min(next.fireAt, warmUpAt, Date.now() + MAX_SLEEP_MS);
+  // Already waking up in time for it
+  if (timerDueAt !== null && timerDueAt <= dueAt) {
+    return;
+  }
 
-    const dayOfWeek = nextDay.getDay();
-    const dayName = Object.values({ 0: 'Sun', 1: 'Mon', 2: 'Tue', 3: 'Wed', 4: 'Thu', 5: 'Fri', 6: 'Sat' })[dayOfWeek];
+  timerDueAt = dueAt;
+  setWakeTimer(Math.max(0, dueAt - Date.now()), wake);
+};
 
-    if (alarm.days.includes(dayName as WeekDay)) {
-      const alarmTime = new Date(nextDay);
-      alarmTime.setHours(hours, minutes, 0, 0);
-      return alarmTime;
+// Fire everything that is due by the wall clock, then sleep again
+const wake = (): void => {
+  timerDueAt = null;
+  stats.wakeups++;
+
+  const now = Date.now();
+  let next = queue.peek();
+  while (next && next.fireAt <= now) {
+    queue.pop();
+    const { alarm, weatherData } = next.value;
+    const latenessMs = now - next.fireAt;
+    const prepared = takePreparedAlarm(next.id, next.fireAt);
+    handledIds.add(next.id);
+    recordAlarmHandled(next.id, next.fireAt);
+    recordLateness(latenessMs, alarm);
+
+    if (latenessMs > MISSED_AFTER_MS) {
+      stats.missed++;
+      broadcastAlarmMessage({ type: 'missed', alarm });
+      showMissedAlarmNotification(alarm, new Date(next.fireAt));
+      scheduleAlarm(alarm, weatherData);
+    } else {
+      broadcastAlarmMessage({ type: 'fire', alarm });
+      triggerAlarm(alarm, prepared?.weatherData || weatherData, prepared || undefined);
     }
+    next = queue.peek();
+  }
+
+  // Get the next alarm ready once it is close
+  if (next && next.fireAt - now <= WARM_UP_LEAD_MS && !isWarmingUp(next.id, next.fireAt)) {
+    warmUpAlarm(next.value.alarm, next.fireAt, next.value.weatherData);
   }
 
-  return null;
+  armTimer();
 };
 
-// Calculate milliseconds until a specific date/time
-const msUntil = (targetTime: Date): number => {
-  return Math.max(0, targetTime.getTime() - new Date().getTime());
+const stopRinging = (alarmId: string): void => {
+  ringing.get(alarmId)?.dispose();
+  ringing.delete(alarmId);
 };
 
-// Check if two alarms are effectively the same
-const areAlarmsEquivalent = (a: Alarm, b: Alarm): boolean => {
-  return a._id === b._id &&
-         a.time === b.time &&
-         a.isEnabled === b.isEnabled &&
-         JSON.stringify(a.days) === JSON.stringify(b.days);
+// Hang up a ringing alarm in this tab and every other one
+export const closeAlarm = (alarmId: string): void => {
+  stopRinging(alarmId);
+  alarmStopCallback?.(alarmId);
+  broadcastAlarmMessage({ type: 'stop', alarmId });
+};
+
+// Move this tab's copy of an alarm the leader handled on to its next occurrence
+const followFire = (alarm: Alarm): void => {
+  if (!alarm._id) return;
+  handledIds.add(alarm._id);
+  scheduleAlarm(alarm, queue.get(alarm._id)?.value.weatherData);
+};
+
+// Follow the other tabs. A fire from the leader is shown here without sound.
+onAlarmMessage(message => {
+  switch (message.type) {
+    case 'fire':
+      // Without Web Locks every tab leads and rings for itself
+      if (isLeaderTab()) break;
+      followFire(message.alarm);
+      alarmDisplayCallback?.(message.alarm, new AlarmSession(message.alarm));
+      break;
+    case 'missed':
+      followFire(message.alarm);
+      break;
+    case 'snooze':
+      scheduleAlarm(message.alarm);
+      break;
+    case 'stop':
+      stopRinging(message.alarmId);
+      alarmStopCallback?.(message.alarmId);
+      break;
+  }
+});
+
+// A new leader catches up on anything the previous one left due, then
+// watches for device sleep and clock changes
+electLeaderTab(() => {
+  console.log('This tab now schedules alarms');
+  startAlarmWatchdog(gap => {
+    console.log(`Clock gap of ${Math.round(gap.wallMs / 1000)}s detected, checking alarms`);
+    wake();
+  });
+  wake();
+});
+
+const recordLateness = (latenessMs: number, alarm: Alarm): void => {
+  stats.fired++;
+  stats.lastLatenessMs = latenessMs;
+  stats.maxLatenessMs = Math.max(stats.maxLatenessMs, latenessMs);
+  stats.totalLatenessMs += latenessMs;
+
+  if (latenessMs > LATE_WARNING_MS) {
+    stats.late++;
+    console.warn(`Alarm ${alarm.label || alarm._id} fired ${Math.round(latenessMs / 1000)}s late`);
+  }
 };
 
 // Schedule an alarm
@@ -98,200 +241,142 @@ export const scheduleAlarm = (alarm: Alarm, weatherData?: WeatherData): void =>
   }
 
   // Get next time the alarm should trigger
-  const nextTime = getNextAlarmTime(alarm);
+  const nextTime = getNextFireTime(alarm);
 
   if (!nextTime) {
     console.warn('Could not determine next alarm time for:', alarm);
     return;
   }
 
-  // Check if this alarm is already scheduled and unchanged
-  const existingAlarmIndex = activeAlarms.findIndex(a => a.id === alarm._id);
-  if (existingAlarmIndex !== -1) {
-    const existingAlarm = activeAlarms[existingAlarmIndex];
+  // An occurrence missed before this page loaded goes first; it is already
+  // due, so the next wake-up handles it
+  const fireAt = getMissedFireTime(alarm) ?? nextTime.getTime();
 
-    // If the alarm data and scheduled time are essentially the same, don't reschedule
-    if (areAlarmsEquivalent(existingAlarm.alarm, alarm) &&
-        existingAlarm.scheduledTime.getTime() === nextTime.getTime()) {
-      return;
-    }
-
-    // Otherwise, clear the existing timer as we'll reschedule
-    clearTimeout(existingAlarm.timerId);
-    // Remove from active alarms
-    activeAlarms.splice(existingAlarmIndex, 1);
+  // If the alarm data and scheduled time are essentially the same, don't reschedule
+  const existing = queue.get(alarm._id);
+  if (existing &&
+      areAlarmsEquivalent(existing.value.alarm, alarm) &&
+      existing.fireAt === fireAt) {
+    return;
   }
 
-  // Calculate delay in milliseconds
-  const delay = msUntil(nextTime);
+  queue.set(alarm._id, fireAt, { alarm, weatherData });
+  armTimer();
 
-  // Schedule alarm
-  const timerId = window.setTimeout(() => {
-    triggerAlarm(alarm, weatherData);
-  }, delay);
+  console.log(`Alarm scheduled: ${alarm.label || 'Alarm'} at ${new Date(fireAt).toLocaleString()}`);
+};
 
-  // Add to active alarms list
-  activeAlarms.push({
-    id: alarm._id,
-    timerId,
-    alarm,
-    scheduledTime: nextTime
-  });
+// When the alarm should have fired while no page was watching, if it did.
+// A throttled leader may have handled occurrences after its last check,
+// so the search starts after the alarm's last handled occurrence.
+const getMissedFireTime = (alarm: Alarm): number | null => {
+  if (uncheckedSince === null || !alarm._id || handledIds.has(alarm._id)) {
+    return null;
+  }
 
-  console.log(`Alarm scheduled: ${alarm.label || 'Alarm'} at ${nextTime.toLocaleString()}`);
+  const lastHandledAt = getLastHandledAt(alarm._id);
+  const from = Math.max(
+    uncheckedSince,
+    loadedAt - MAX_CATCH_UP_MS,
+    lastHandledAt === null ? 0 : lastHandledAt + 1000
+  );
+  const missed = getNextFireTime(alarm, new Date(from));
+  return missed && missed.getTime() <= loadedAt ? missed.getTime() : null;
 };
 
 // Cancel a specific alarm
 export const cancelAlarm = (alarmId: string): void => {
-  const index = activeAlarms.findIndex(a => a.id === alarmId);
-  if (index !== -1) {
-    clearTimeout(activeAlarms[index].timerId);
-    activeAlarms.splice(index, 1);
+  cancelWarmUp(alarmId);
+  if (queue.delete(alarmId)) {
+    armTimer();
     console.log(`Alarm canceled: ${alarmId}`);
   }
 };
 
-// Trigger an alarm
-export const triggerAlarm = async (alarm: Alarm, weatherData?: WeatherData): Promise<HTMLAudioElement> => {
+// Trigger an alarm. A warmed-up alarm (see alarmWarmup) has its sound
+// decoded and its speech ready to play; otherwise both are prepared here.
+// Everything started for it belongs to the returned session.
+export const triggerAlarm = async (
+  alarm: Alarm,
+  weatherData?: WeatherData,
+  prepared?: PreparedAlarm
+): Promise<AlarmSession> => {
+    const session = new AlarmSession(alarm);
+
     // Prepare weather text if needed
     let weatherText;
-    if (alarm.weatherAlert && weatherData) {
+    if (!prepared && alarm.weatherAlert && weatherData) {
       weatherText = formatWeatherForSpeech(weatherData);
     }
 
-    // Play alarm sound
-    const audio = new Audio();
+    // Play alarm sound; the engine falls back to the default sound, then a beep
+    const playback = playAlarmSound(alarm.sound, { raiseGradually: alarm.raiseVolumeGradually });
+    session.own('sound', playback.stop);
 
-    try {
-      // Set source with error handling - use correct path with leading slash
-      if (alarm.sound) {
-        audio.src = `/public/sounds/${alarm.sound}.mp3`;
-        console.log(`Loading sound from: /public/sounds/${alarm.sound}.mp3`);
-      } else {
-        audio.src = '/public/sounds/baby_waltz.mp3';
-        console.log('Loading default sound: /public/sounds/baby_waltz.mp3');
+    if (alarm.vibrate) {
+      // Check if vibration API is available
+      if ('vibrate' in navigator) {
+        // Vibrate pattern: vibrate for 500ms, pause for 250ms, repeat
+        navigator.vibrate([500, 250, 500, 250, 500]);
+        session.own('vibration', () => navigator.vibrate(0));
       }
-
-      // Keep a simple fallback in case of errors
-      audio.onerror = () => {
-        console.warn(`Could not load sound: ${audio.src}, trying fallback`);
-        audio.src = '/sounds/baby_waltz.mp3';
-
-        // If even the fallback fails, use a system beep sound as last resort
-        audio.onerror = () => {
-          console.warn("Even fallback sound failed to load, using system beep");
-          // Create a simple oscillator as a last resort
-          try {
-            const audioContext = new (window.AudioContext || (window as any).webkitAudioContext)();
-            const oscillator = audioContext.createOscillator();
-            oscillator.type = 'sine';
-            oscillator.frequency.setValueAtTime(800, audioContext.currentTime);
-            oscillator.connect(audioContext.destination);
-            oscillator.start();
-            setTimeout(() => oscillator.stop(), 1000);
-          } catch (e) {
-            console.error("Could not create fallback beep sound:", e);
-          }
-        };
-      };
-
-      if (alarm.vibrate) {
-        // Check if vibration API is available
-        if ('vibrate' in navigator) {
-          // Vibrate pattern: vibrate for 500ms, pause for 250ms, repeat
-          navigator.vibrate([500, 250, 500, 250, 500]);
-        }
-      }
-
-      // Handle volume
-      if (alarm.raiseVolumeGradually) {
-        audio.volume = 0.1;
-        let vol = 0.1;
-        const volumeInterval = setInterval(() => {
-          vol += 0.1;
-          if (vol <= 1) {
-            audio.volume = vol;
-          } else {
-            clearInterval(volumeInterval);
-          }
-        }, 3000); // Increase volume every 3 seconds
-      } else {
-        audio.volume = 1.0;
-      }
-
-      // Set to loop
-      audio.loop = true;
-
-      // Try to play the audio, but don't let errors stop the alarm display
-      try {
-        // We need to make sure the audio is ready before playing
-        audio.addEventListener('canplaythrough', () => {
-          audio.play().catch(error => {
-            console.warn("Could not play alarm sound:", error);
-            // This might happen due to browser autoplay restrictions
-          });
-        }, { once: true });
-
-        // Set a timeout in case the event never fires
-        setTimeout(() => {
-          audio.play().catch(error => {
-            console.warn("Timeout: Could not play alarm sound:", error);
-          });
-        }, 1000);
-      } catch (error) {
-        console.warn("Could not play alarm sound:", error);
-        // Continue with the alarm even if sound fails
-      }
-
-    } catch (error) {
-      console.error("Error setting up alarm audio:", error);
-      // Don't let audio errors prevent the alarm from displaying
     }
 
     // IMPORTANT: Call the alarm display callback FIRST so UI appears immediately
     // even if notification fails
+    if (alarm._id) {
+      ringing.get(alarm._id)?.dispose();
+      ringing.set(alarm._id, session);
+    }
     if (alarmDisplayCallback) {
-      alarmDisplayCallback(alarm, audio);
+      alarmDisplayCallback(alarm, session);
     }
 
     // Display notification (but don't let it block the UI)
     try {
-      showAlarmNotification(alarm);
+      showAlarmNotification(alarm, session);
     } catch (error) {
       console.warn("Could not show notification:", error);
     }
 
     // Use TTS to announce alarm - don't await this, let it run in parallel
-    speakAlarmNotification(alarm.label, !!alarm.weatherAlert, weatherText)
+    const speech = prepared
+      ? speakPrepared(prepared.speech)
+      : speakAlarmNotification(alarm.label, !!alarm.weatherAlert, weatherText);
+    let speaking = true;
+    speech
       .catch(error => {
         console.warn("Could not use text-to-speech:", error);
+      })
+      .finally(() => {
+        speaking = false;
       });
+    session.own('speech', () => {
+      if (speaking) cancelSpeech();
+    });
 
-    // If this was a real scheduled alarm (not manually triggered), update scheduling
+    // If this was a real scheduled alarm (not manually triggered), schedule
+    // the next occurrence - this will only happen after the alarm has triggered
     if (alarm._id && !alarm._manuallyTriggered) {
-      const index = activeAlarms.findIndex(a => a.id === alarm._id);
-      if (index !== -1) {
-        activeAlarms.splice(index, 1);
-      }
-
-      // Schedule the next occurrence - this will only happen after the alarm has triggered
       scheduleAlarm(alarm, weatherData);
     }
 
-    // Return the audio element so it can be stopped when the alarm is dismissed
-    return audio;
+    // Return the session so it can be disposed when the alarm is dismissed
+    return session;
 };
 
-// Show a browser notification for the alarm
-export const showAlarmNotification = (alarm: Alarm): void => {
+// Show a browser notification for the alarm. With a session, the
+// notification closes when the session is disposed.
+export const showAlarmNotification = (alarm: Alarm, session?: AlarmSession): void => {
   // Check if notifications are supported and permission is granted
   if ('Notification' in window) {
     if (Notification.permission === 'granted') {
-      createNotification(alarm);
+      createNotification(alarm, session);
     } else if (Notification.permission !== 'denied') {
       Notification.requestPermission().then(permission => {
-        if (permission === 'granted') {
-          createNotification(alarm);
+        // The alarm may have been dismissed while the prompt was open
+        if (permission === 'granted' && !session?.disposed) {
+          createNotification(alarm, session);
         }
       });
     }
@@ -299,24 +384,50 @@ export const showAlarmNotification = (alarm: Alarm): void => {
 };
 
 // Create the actual notification
-const createNotification = (alarm: Alarm): void => {
+const createNotification = (alarm: Alarm, session?: AlarmSession): void => {
   try {
     const title = alarm.label || 'Alarm';
     const options: NotificationOptions = {
       body: `It's ${alarm.time}! Time to wake up!`,
       icon: '/icons/alarm-icon.png',
       badge: '/icons/alarm-badge.png',
+      // Same tag as the service worker's push notification, so the two
+      // replace each other instead of stacking
+      tag: alarm._id ? `alarm-${alarm._id}` : undefined,
       requireInteraction: true // Notification persists until user interacts with it
       // Note: Actions are NOT supported for regular notifications, only for service worker notifications
     };
 
     const notification = new Notification(title, options);
+    session?.own('notification', () => notification.close());
 
-    notification.onclick = (event) => {
+    const onClick = () => {
       // Focus on app window
       window.focus();
       notification.close();
     };
+    if (session) {
+      session.listen(notification, 'click', onClick);
+    } else {
+      notification.onclick = onClick;
+    }
+  } catch (error) {
+    console.warn("Could not create notification:", error);
+  }
+};
+
+// Tell the user about an alarm the device slept through
+const showMissedAlarmNotification = (alarm: Alarm, fireTime: Date): void => {
+  if (!('Notification' in window) || Notification.permission !== 'granted') {
+    return;
+  }
+
+  try {
+    new Notification(`Missed: ${alarm.label || 'Alarm'}`, {
+      body: `Your ${alarm.time} alarm went off while this device was asleep (${fireTime.toLocaleString()}).`,
+      icon: '/icons/alarm-icon.png',
+      badge: '/icons/alarm-badge.png'
+    });
   } catch (error) {
     console.warn("Could not create notification:", error);
   }
@@ -326,13 +437,10 @@ const createNotification = (alarm: Alarm): void => {
 export const snoozeAlarm = async (
   alarm: Alarm,
   userId: string,
-  audio?: HTMLAudioElement
+  session?: AlarmSession
 ): Promise<void> => {
-  // Stop the current alarm sound
-  if (audio) {
-    audio.pause();
-    audio.currentTime = 0;
-  }
+  // Stop the current alarm and release everything it started
+  session?.dispose();
 
   // Determine snooze duration
   const snoozeMinutes = alarm.snoozeTime || 10;
@@ -362,8 +470,9 @@ export const snoozeAlarm = async (
     console.warn("Could not update plant health:", error);
   }
 
-  // Schedule the snoozed alarm
+  // Schedule the snoozed alarm here and in the other tabs
   scheduleAlarm(snoozeAlarm);
+  broadcastAlarmMessage({ type: 'snooze', alarm: snoozeAlarm });
 };
 
 // Dismiss an alarm completely
@@ -371,13 +480,12 @@ export const dismissAlarm = async (
   alarm: Alarm,
   userId: string,
   didWakeUp: boolean,
-  audio?: HTMLAudioElement,
+  session?: AlarmSession,
   immediateDismiss: boolean = true
 ): Promise<void> => {
-  // Stop the current alarm sound
-  if (audio && immediateDismiss) {
-    audio.pause();
-    audio.currentTime = 0;
+  // Stop the current alarm and release everything it started
+  if (immediateDismiss) {
+    session?.dispose();
   }
 
   try {
@@ -395,11 +503,8 @@ export const dismissAlarm = async (
 
 // Cancel all scheduled alarms
 export const cancelAllAlarms = (): void => {
-  activeAlarms.forEach(activeAlarm => {
-    clearTimeout(activeAlarm.timerId);
-  });
-
-  activeAlarms = [];
+  queue.clear();
+  armTimer();
 };
 
 // Schedule all alarms (for initialization)
@@ -415,9 +520,26 @@ export const scheduleAllAlarms = (alarms: Alarm[], weatherData?: WeatherData): v
   });
 };
 
-// Get all currently scheduled alarms
+// Get all currently scheduled alarms, soonest first
 export const getScheduledAlarms = (): ActiveAlarm[] => {
-  return [...activeAlarms];
+  return queue.values()
+    .sort((a, b) => a.fireAt - b.fireAt)
+    .map(entry => ({ id: entry.id, alarm: entry.value.alarm, scheduledTime: new Date(entry.fireAt) }));
+};
+
+// Queue size and fire accuracy, for diagnostics
+export const getSchedulerStats = (): SchedulerStats => {
+  return {
+    scheduled: queue.size,
+    nextFireAt: queue.peek()?.fireAt ?? null,
+    wakeups: stats.wakeups,
+    fired: stats.fired,
+    late: stats.late,
+    missed: stats.missed,
+    lastLatenessMs: stats.lastLatenessMs,
+    maxLatenessMs: stats.maxLatenessMs,
+    meanLatenessMs: stats.fired ? stats.totalLatenessMs / stats.fired : 0
+  };
 };
 
 // Calculate time remaining until an alarm goes off
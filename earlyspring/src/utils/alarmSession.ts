@@ -0,0 +1,90 @@
+// src/utils/alarmSession.ts
+
+// Everything one ringing alarm creates (its sound, vibration, notification,
+// speech and listeners) is registered with an AlarmSession together with
+// the function that releases it. Snoozing, dismissing or closing the alarm
+// from another tab disposes the session, which releases all of it at once.
+// Module-wide counters make leaks visible: after any number of fire and
+// dismiss cycles, getAlarmSessionStats() should report no open resources.
+
+import { Alarm } from '../types';
+
+export type AlarmResource = 'sound' | 'vibration' | 'notification' | 'speech' | 'listener';
+
+export interface AlarmSessionStats {
+  created: number;
+  disposed: number;
+  active: number;
+  // Resources currently held by live sessions, per kind
+  open: Record<AlarmResource, number>;
+}
+
+const counters = {
+  created: 0,
+  disposed: 0
+};
+
+const open: Record<AlarmResource, number> = {
+  sound: 0,
+  vibration: 0,
+  notification: 0,
+  speech: 0,
+  listener: 0
+};
+
+export class AlarmSession {
+  readonly alarm: Alarm;
+  private releases: { kind: AlarmResource; release: () => void }[] = [];
+  private isDisposed = false;
+
+  constructor(alarm: Alarm) {
+    this.alarm = alarm;
+    counters.created++;
+  }
+
+  get disposed(): boolean {
+    return this.isDisposed;
+  }
+
+  // Take ownership of a resource. After disposal it is released right away.
+  own(kind: AlarmResource, release: () => void): void {
+    if (this.isDisposed) {
+      release();
+      return;
+    }
+    this.releases.push({ kind, release });
+    open[kind]++;
+  }
+
+  // Add an event listener that is removed with the session
+  listen(target: EventTarget, type: string, listener: EventListener): void {
+    target.addEventListener(type, listener);
+    this.own('listener', () => target.removeEventListener(type, listener));
+  }
+
+  // Release everything, newest first. Safe to call more than once.
+  dispose(): void {
+    if (this.isDisposed) return;
+    this.isDisposed = true;
+    counters.disposed++;
+
+    for (const { kind, release } of this.releases.reverse()) {
+      try {
+        release();
+      } catch (error) {
+        console.warn(`Could not release alarm ${kind}:`, error);
+      }
+      open[kind]--;
+    }
+    this.releases = [];
+  }
+}
+
+export const getAlarmSessionStats = (): AlarmSessionStats => {
+  return {
+    created: counters.created,
+    disposed: counters.disposed,
+    active: counters.created - counters.disposed,
+    open: { ...open }
+  };
+};
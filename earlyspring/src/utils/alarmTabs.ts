@@ -0,0 +1,65 @@
+// src/utils/alarmTabs.ts
+
+// Coordination between open tabs. Exactly one tab, the leader, runs the
+// scheduler's timer and rings alarms; the others learn about fires, snoozes
+// and dismissals over a BroadcastChannel so every tab shows the same state.
+// Leadership is a Web Lock held for the tab's lifetime: when the leader
+// closes, the browser hands the lock to the next waiting tab.
+
+import { Alarm } from '../types';
+
+const LEADER_LOCK = 'earlyspring-alarm-scheduler';
+const CHANNEL_NAME = 'earlyspring-alarms';
+
+export type AlarmTabMessage =
+  // The leader rang a scheduled alarm
+  | { type: 'fire'; alarm: Alarm }
+  // The leader found an alarm the device slept through and didn't ring it
+  | { type: 'missed'; alarm: Alarm }
+  // A tab snoozed an alarm; the snoozed copy must be scheduled everywhere
+  | { type: 'snooze'; alarm: Alarm }
+  // A tab dismissed or snoozed a ringing alarm
+  | { type: 'stop'; alarmId: string };
+
+let leader = false;
+let electionStarted = false;
+const channel = typeof BroadcastChannel !== 'undefined' ? new BroadcastChannel(CHANNEL_NAME) : null;
+
+export const isLeaderTab = (): boolean => leader;
+
+// Wait for leadership and call `onElected` once it is ours. Browsers
+// without Web Locks can't coordinate, so every tab leads as before.
+export const electLeaderTab = (onElected: () => void): void => {
+  if (electionStarted) return;
+  electionStarted = true;
+
+  if (!navigator.locks) {
+    leader = true;
+    onElected();
+    return;
+  }
+
+  navigator.locks.request(LEADER_LOCK, () => {
+    leader = true;
+    onElected();
+    // Hold the lock until the tab goes away
+    return new Promise<void>(() => {});
+  }).catch(error => {
+    console.warn('Alarm leader election failed, scheduling in this tab:', error);
+    leader = true;
+    onElected();
+  });
+};
+
+// Tell the other tabs; the sender does not receive its own messages
+export const broadcastAlarmMessage = (message: AlarmTabMessage): void => {
+  channel?.postMessage(message);
+};
+
+export const onAlarmMessage = (listener: (message: AlarmTabMessage) => void): (() => void) => {
+  if (!channel) return () => {};
+
+  const handler = (event: MessageEvent<AlarmTabMessage>) => listener(event.data);
+  channel.addEventListener('message', handler);
+  return () => channel.removeEventListener('message', handler);
+};
@@ -0,0 +1,44 @@
+// src/utils/alarmTime.ts
+
+import { Alarm, WeekDay } from '../types';
+
+// Same numbering as Date.getDay(), so bit i of a day mask is DAY_NAMES[i]
+export const DAY_NAMES: WeekDay[] = ['Sun', 'Mon', 'Tue', 'Wed', 'Thu', 'Fri', 'Sat'];
+
+// Convert a list of week days to a 7-bit mask
+export const toDayMask = (days: WeekDay[]): number => {
+  return days.reduce((mask, day) => {
+    const index = DAY_NAMES.indexOf(day);
+    return index === -1 ? mask : mask | (1 << index);
+  }, 0);
+};
+
+// Convert "HH:MM" to minutes since midnight
+export const toMinutes = (time: string): number => {
+  const [hours, minutes] = time.split(':').map(Number);
+  return hours * 60 + minutes;
+};
+
+// Next local time (strictly after `from`) the alarm should ring.
+// Derived from time/days rather than the stored fields, because snoozed and
+// edited copies of an alarm only change time/days.
+export const getNextFireTime = (alarm: Alarm, from: Date = new Date()): Date | null => {
+  const dayMask = toDayMask(alarm.days);
+  const minutes = toMinutes(alarm.time);
+
+  if (!dayMask || Number.isNaN(minutes)) {
+    return null;
+  }
+
+  for (let i = 0; i <= 7; i++) {
+    const candidate = new Date(from);
+    candidate.setDate(from.getDate() + i);
+    candidate.setHours(Math.floor(minutes / 60), minutes % 60, 0, 0);
+
+    if ((dayMask & (1 << candidate.getDay())) !== 0 && candidate > from) {
+      return candidate;
+    }
+  }
+
+  return null;
+};
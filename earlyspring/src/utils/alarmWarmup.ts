@@ -0,0 +1,114 @@
+// src/utils/alarmWarmup.ts
+
+// Gets an alarm ready a few minutes before it rings: fresh weather for the
+// announcement, the speech synthesized and decoded, and the alarm sound
+// decoded into the audio engine's cache. Firing then only has to press
+// play; if a warm-up hasn't finished by then, the alarm is prepared on the
+// spot as before.
+
+import { Alarm, WeatherData } from '../types';
+import { getCachedLocation, requestWeatherData, formatWeatherForSpeech } from '../services/weatherService';
+import { buildAlarmSpeech, prepareSpeech, PreparedSpeech } from '../services/ttsService';
+import { loadSound, DEFAULT_SOUND } from '../services/audioEngine';
+
+// How long before an alarm fires its warm-up starts
+export const WARM_UP_LEAD_MS = 3 * 60 * 1000;
+
+export interface PreparedAlarm {
+  weatherData?: WeatherData;
+  speech: PreparedSpeech;
+}
+
+interface WarmUp {
+  fireAt: number;
+  prepared: PreparedAlarm | null;
+  // Aborted when the warm-up is cancelled, replaced or taken unfinished,
+  // so it stops fetching and never publishes a result nobody will use
+  controller: AbortController;
+}
+
+// Alarm id -> warm-up of its upcoming occurrence
+const warmUps = new Map<string, WarmUp>();
+
+// Decode the alarm's sound, or the default sound it falls back to. Sound
+// failures don't fail the warm-up; firing falls back to a beep.
+const loadAlarmSound = async (sound?: string): Promise<void> => {
+  try {
+    await loadSound(sound || DEFAULT_SOUND);
+  } catch (error) {
+    console.warn('Could not preload alarm sound:', error);
+    await loadSound(DEFAULT_SOUND).catch(() => {});
+  }
+};
+
+// Fresh weather from the last known location. Asking for geolocation
+// could wait on a prompt nobody answers, so without one the weather the
+// alarm was scheduled with is used.
+const refreshWeather = async (alarm: Alarm, weatherData?: WeatherData): Promise<WeatherData | undefined> => {
+  const location = getCachedLocation();
+  if (!location) return weatherData;
+
+  try {
+    return await requestWeatherData(alarm.userId, location, true);
+  } catch (error) {
+    console.warn('Could not refresh weather for alarm:', error);
+    return weatherData;
+  }
+};
+
+const prepareAlarm = async (alarm: Alarm, weatherData: WeatherData | undefined, signal: AbortSignal): Promise<PreparedAlarm> => {
+  const [, weather] = await Promise.all([
+    loadAlarmSound(alarm.sound),
+    alarm.weatherAlert ? refreshWeather(alarm, weatherData) : Promise.resolve(weatherData)
+  ]);
+  signal.throwIfAborted();
+
+  const weatherText = alarm.weatherAlert && weather ? formatWeatherForSpeech(weather) : undefined;
+  const speech = await prepareSpeech(buildAlarmSpeech(alarm.label, !!alarm.weatherAlert, weatherText), signal);
+
+  return { weatherData: weather, speech };
+};
+
+export const isWarmingUp = (alarmId: string, fireAt: number): boolean => {
+  return warmUps.get(alarmId)?.fireAt === fireAt;
+};
+
+// Start preparing the occurrence of `alarm` due at `fireAt`
+export const warmUpAlarm = (alarm: Alarm, fireAt: number, weatherData?: WeatherData): void => {
+  if (!alarm._id) return;
+
+  const alarmId = alarm._id;
+  cancelWarmUp(alarmId);
+  const warmUp: WarmUp = { fireAt, prepared: null, controller: new AbortController() };
+  warmUps.set(alarmId, warmUp);
+
+  const { signal } = warmUp.controller;
+  prepareAlarm(alarm, weatherData, signal)
+    .then(prepared => {
+      if (signal.aborted) return;
+      warmUp.prepared = prepared;
+      console.log(`Alarm ${alarm.label || alarmId} is warmed up`);
+    })
+    .catch(error => {
+      if (signal.aborted) return;
+      console.warn('Alarm warm-up failed, it will be prepared when it fires:', error);
+    });
+};
+
+// The prepared occurrence if its warm-up has finished. Firing never waits
+// for an unfinished one.
+export const takePreparedAlarm = (alarmId: string, fireAt: number): PreparedAlarm | null => {
+  const warmUp = warmUps.get(alarmId);
+  if (!warmUp || warmUp.fireAt !== fireAt) return null;
+
+  warmUps.delete(alarmId);
+  if (!warmUp.prepared) {
+    warmUp.controller.abort();
+  }
+  return warmUp.prepared;
+};
+
+export const cancelWarmUp = (alarmId: string): void => {
+  warmUps.get(alarmId)?.controller.abort();
+  warmUps.delete(alarmId);
+};
@@ -0,0 +1,120 @@
+// src/utils/alarmWatchdog.ts
+
+// Notices time the page didn't get to run: device sleep, frozen or heavily
+// throttled tabs, and wall clock changes. A cheap tick every few seconds
+// compares how far the wall clock and the monotonic clock moved since the
+// last tick; a long gap or a disagreement between them means timers may
+// have been skipped. The last tick is persisted, so a cold start can tell
+// how long nobody was watching. Background tabs tick far less often than
+// every few seconds, so that window is only an upper bound: each alarm's
+// last handled occurrence is persisted too, and catch-up starts after it.
+
+const WATCHDOG_INTERVAL_MS = 5000;
+// Slack for ordinary timer jitter before a tick counts as a gap
+const GAP_TOLERANCE_MS = 2000;
+const LAST_CHECK_KEY = 'earlyspring.alarmsCheckedAt';
+const HANDLED_KEY = 'earlyspring.alarmsHandledAt';
+// Handled times older than this can't affect catch-up any more
+const HANDLED_RETENTION_MS = 2 * 24 * 60 * 60 * 1000;
+
+export interface ClockGap {
+  // Wall clock time of the last tick before the gap
+  since: number;
+  wallMs: number;
+  monotonicMs: number;
+}
+
+const readLastCheck = (): number | null => {
+  try {
+    const value = Number(localStorage.getItem(LAST_CHECK_KEY));
+    return value > 0 ? value : null;
+  } catch {
+    return null;
+  }
+};
+
+const writeLastCheck = (time: number): void => {
+  try {
+    localStorage.setItem(LAST_CHECK_KEY, String(time));
+  } catch {
+    // Storage full or unavailable; only cold-start catch-up suffers
+  }
+};
+
+// When some tab last watched the alarms before this page loaded, or null
+// if one was watching until moments ago
+const uncheckedSince = ((): number | null => {
+  const lastCheck = readLastCheck();
+  if (lastCheck === null) return null;
+  return Date.now() - lastCheck > WATCHDOG_INTERVAL_MS + GAP_TOLERANCE_MS ? lastCheck : null;
+})();
+
+export const getUncheckedSince = (): number | null => uncheckedSince;
+
+const readHandled = (): Record<string, number> => {
+  try {
+    return JSON.parse(localStorage.getItem(HANDLED_KEY) || '{}');
+  } catch {
+    return {};
+  }
+};
+
+// Remember that the occurrence of `alarmId` due at `fireAt` rang (or was
+// reported missed), so no tab catches it up again
+export const recordAlarmHandled = (alarmId: string, fireAt: number): void => {
+  const handled = readHandled();
+  handled[alarmId] = Math.max(handled[alarmId] || 0, fireAt);
+
+  const cutoff = Date.now() - HANDLED_RETENTION_MS;
+  for (const id of Object.keys(handled)) {
+    if (handled[id] < cutoff) delete handled[id];
+  }
+  try {
+    localStorage.setItem(HANDLED_KEY, JSON.stringify(handled));
+  } catch {
+    // Storage full or unavailable; catch-up falls back to the check window
+  }
+};
+
+// Fire time of the alarm's last handled occurrence, if known
+export const getLastHandledAt = (alarmId: string): number | null => {
+  return readHandled()[alarmId] ?? null;
+};
+
+// Tick until the returned stop function is called, reporting gaps to `onGap`
+export const startAlarmWatchdog = (onGap: (gap: ClockGap) => void): (() => void) => {
+  let lastWall = Date.now();
+  let lastMonotonic = performance.now();
+  writeLastCheck(lastWall);
+
+  const check = () => {
+    const wall = Date.now();
+    const monotonic = performance.now();
+    const wallMs = wall - lastWall;
+    const monotonicMs = monotonic - lastMonotonic;
+    const since = lastWall;
+
+    lastWall = wall;
+    lastMonotonic = monotonic;
+    writeLastCheck(wall);
+
+    if (wallMs > WATCHDOG_INTERVAL_MS + GAP_TOLERANCE_MS ||
+        Math.abs(wallMs - monotonicMs) > GAP_TOLERANCE_MS) {
+      onGap({ since, wallMs, monotonicMs });
+    }
+  };
+
+  const intervalId = window.setInterval(check, WATCHDOG_INTERVAL_MS);
+  // Hidden tabs tick rarely, so check as soon as the page is back
+  const onVisible = () => {
+    if (document.visibilityState === 'visible') check();
+  };
+  document.addEventListener('visibilitychange', onVisible);
+  window.addEventListener('pageshow', check);
+
+  return () => {
+    clearInterval(intervalId);
+    document.removeEventListener('visibilitychange', onVisible);
+    window.removeEventListener('pageshow', check);
+  };
+};
@@ -1,5 +1,7 @@
 // src/utils/notifications.ts
 
+const API_BASE_URL = import.meta.env.VITE_API_BASE_URL || 'http://localhost:3000/api';
+
 // Request notification permissions
 export const requestNotificationPermission = async (): Promise<boolean> => {
     if (!('Notification' in window)) {
@@ -43,6 +45,56 @@ export const requestNotificationPermission = async (): Promise<boolean> => {
     return false;
   };
 
+  // Convert a base64url VAPID key to the format PushManager expects
+  const urlBase64ToUint8Array = (base64String: string): Uint8Array => {
+    const padding = '='.repeat((4 - (base64String.length % 4)) % 4);
+    const base64 = (base64String + padding).replace(/-/g, '+').replace(/_/g, '/');
+    const rawData = window.atob(base64);
+    return Uint8Array.from(rawData, char => char.charCodeAt(0));
+  };
+
+  // Subscribe to server-sent alarm pushes so alarms fire even with the tab closed
+  export const subscribeToPush = async (userId: string): Promise<boolean> => {
+    if (!('serviceWorker' in navigator) || !('PushManager' in window)) {
+      return false;
+    }
+
+    if (Notification.permission !== 'granted') {
+      return false;
+    }
+
+    try {
+      const keyResponse = await fetch(`${API_BASE_URL}/push/vapidPublicKey`);
+      if (!keyResponse.ok) {
+        console.warn('Push notifications are not configured on the server');
+        return false;
+      }
+      const { publicKey } = await keyResponse.json();
+
+      const registration = await navigator.serviceWorker.ready;
+      let subscription = await registration.pushManager.getSubscription();
+      if (!subscription) {
+        subscription = await registration.pushManager.subscribe({
+          userVisibleOnly: true,
+          applicationServerKey: urlBase64ToUint8Array(publicKey)
+        });
+      }
+
+      const response = await fetch(`${API_BASE_URL}/push/subscribe`, {
+        method: 'POST',
+        headers: {
+          'Content-Type': 'application/json'
+        },
+        body: JSON.stringify({ userId, subscription: subscription.toJSON() })
+      });
+
+      return response.ok;
+    } catch (error) {
+      console.error('Push subscription failed:', error);
+      return false;
+    }
+  };
+
   // Check if the device supports all required APIs
   export const checkDeviceSupport = (): {
     notifications: boolean;
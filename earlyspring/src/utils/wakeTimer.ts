@@ -0,0 +1,78 @@
+// src/utils/wakeTimer.ts
+
+// One-shot timer for the alarm scheduler. It runs in a dedicated worker, so
+// React renders and other main-thread work can't delay it, and background
+// tabs don't throttle it as hard as page timers. Without worker support it
+// falls back to window.setTimeout.
+
+let worker: Worker | null | undefined;
+let token = 0;
+let onWake: (() => void) | null = null;
+// performance.now() the pending wake-up is due at, to re-arm it if the
+// worker dies first
+let dueAt = 0;
+let fallbackId: number | null = null;
+
+const getWorker = (): Worker | null => {
+  if (worker !== undefined) return worker;
+
+  try {
+    worker = new Worker(new URL('./wakeTimer.worker.ts', import.meta.url), { type: 'module' });
+    worker.onmessage = (event: MessageEvent<{ token: number }>) => {
+      if (event.data.token === token) {
+        fire();
+      }
+    };
+    worker.onerror = (event) => {
+      console.warn('Wake timer worker failed, using page timers:', event.message);
+      worker?.terminate();
+      worker = null;
+      // The worker's timer went with it; carry the pending wake-up over
+      if (onWake) {
+        armFallback(Math.max(0, dueAt - performance.now()));
+      }
+    };
+  } catch (error) {
+    console.warn('Wake timer worker unavailable, using page timers:', error);
+    worker = null;
+  }
+  return worker;
+};
+
+const fire = (): void => {
+  const callback = onWake;
+  onWake = null;
+  callback?.();
+};
+
+const armFallback = (delay: number): void => {
+  fallbackId = window.setTimeout(() => {
+    fallbackId = null;
+    fire();
+  }, delay);
+};
+
+// Call `callback` after `delay` ms, replacing any pending wake-up
+export const setWakeTimer = (delay: number, callback: () => void): void => {
+  clearWakeTimer();
+  onWake = callback;
+  dueAt = performance.now() + delay;
+
+  const timerWorker = getWorker();
+  if (timerWorker) {
+    timerWorker.postMessage({ type: 'set', delay, token: ++token });
+  } else {
+    armFallback(delay);
+  }
+};
+
+export const clearWakeTimer = (): void => {
+  onWake = null;
+  token++;
+
+  if (fallbackId !== null) {
+    clearTimeout(fallbackId);
+    fallbackId = null;
+  }
+  worker?.postMessage({ type: 'clear' });
+};
@@ -0,0 +1,26 @@
+// src/utils/wakeTimer.worker.ts
+
+// Runs the alarm scheduler's single wake-up timer off the main thread.
+// Each `set` replaces the previous timer; the token sent back lets the page
+// ignore wake-ups it has since cleared.
+
+type WakeTimerCommand =
+  | { type: 'set'; delay: number; token: number }
+  | { type: 'clear' };
+
+let timer: ReturnType<typeof setTimeout> | null = null;
+
+self.onmessage = (event: MessageEvent<WakeTimerCommand>) => {
+  if (timer !== null) {
+    clearTimeout(timer);
+    timer = null;
+  }
+
+  const command = event.data;
+  if (command.type === 'set') {
+    timer = setTimeout(() => {
+      timer = null;
+      self.postMessage({ token: command.token });
+    }, command.delay);
+  }
+};
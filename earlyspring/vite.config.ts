@@ -1,11 +1,15 @@
 import { defineConfig } from 'vite'
 import react from '@vitejs/plugin-react-swc'
 import tailwindcss from '@tailwindcss/vite'
+import { precacheManifest } from './plugins/precacheManifest'
+import { precompress } from './plugins/precompress'
 
 export default defineConfig({
   plugins: [
     react(),
-    tailwindcss()
+    tailwindcss(),
+    precacheManifest(),
+    precompress()
   ],
   publicDir: 'public',
   server: {